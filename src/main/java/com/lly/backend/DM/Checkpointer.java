@@ -0,0 +1,72 @@
+package com.lly.backend.DM;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 后台检查点线程
+ * 每隔interval毫秒做一次检查点，让日志和恢复时需要扫描的日志保持有界
+ */
+class Checkpointer implements Runnable {
+
+    private DataManagerImpl dm;
+    private long interval;    // 检查点间隔，毫秒
+
+    private Lock lock;
+    private Condition wakeup;
+    private volatile boolean running;
+    private Thread thread;
+
+    Checkpointer(DataManagerImpl dm, long interval) {
+        this.dm = dm;
+        this.interval = interval;
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, "checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止检查点线程，等待正在进行的检查点完成
+     */
+    void stop() {
+        running = false;
+        lock.lock();
+        try {
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(running) {
+            lock.lock();
+            try {
+                if(running) {
+                    wakeup.await(interval, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if(running) {
+                dm.checkpoint();
+            }
+        }
+    }
+}
@@ -2,41 +2,92 @@ package com.lly.backend.DM;
 
 import com.lly.backend.DM.dataItem.DataItem;
 import com.lly.backend.DM.logger.Logger;
+import com.lly.backend.DM.page.Page;
 import com.lly.backend.DM.page.PageOne;
 import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
 import com.lly.backend.DM.pageCache.PageCacheImpl;
 import com.lly.backend.TM.TransactionManager;
+import com.lly.common.ErrorItem;
+import com.lly.common.utils.Error;
 
 public interface DataManager {
 
     DataItem read(long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    // 提示即将读取uid，在后台预读它所在的页
+    void prefetch(long uid);
+    // 数据库的页大小
+    int getPageSize();
+    // 当前线程开始全表扫描，扫描读入的页面不会挤出缓存中的其他页面
+    void beginScan();
+    void endScan();
+    // 等待目前为止写入的日志全部落盘
+    void flushLog();
+    // 等待LSN不超过lsn的日志落盘
+    void flushLog(long lsn);
+    // 写入提交日志，再在TM中记录提交，返回提交日志的LSN，提交日志落盘时事务提交完成
+    long logCommit(long xid);
+    // 写入取消日志，再在TM中记录取消，不需要等待落盘
+    void logAbort(long xid);
 
     void close();
 
     public static DataManager create(String path, long memory, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, memory);
+        return create(path, memory, tm, new PageCacheConfig());
+    }
+
+    public static DataManager create(String path, long memory, TransactionManager tm, PageCacheConfig config) {
+        PageCache pc = PageCache.create(path, memory, config);
         Logger lg = Logger.create(path);
+        pc.setLogger(lg);
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
 
         dm.initPageOne();
+        dm.startCheckpointer(config.checkpointInterval);
         return dm;
     }
 
     public static DataManager open(String path, long memory, TransactionManager tm) {
-        PageCache pageCache = PageCache.open(path, memory);
-        Logger lg = Logger.open(path);
+        return open(path, memory, tm, new PageCacheConfig());
+    }
+
+    public static DataManager open(String path, long memory, TransactionManager tm, PageCacheConfig config) {
+        PageCache pageCache = PageCache.open(path, memory, config);
+        Logger lg;
+        if(pageCache.getFormatVersion() == 0 && !Logger.exists(path)) {
+            //早期版本创建的数据库第一次打开，旧格式的日志无法重放，只有正常关闭的数据库可以换用新日志
+            if(!closedCleanly(pageCache)) {
+                Error.error(ErrorItem.UncleanOldDBException);
+            }
+            lg = Logger.upgrade(path);
+        } else {
+            lg = Logger.open(path);
+        }
+        pageCache.setLogger(lg);
         DataManagerImpl dm = new DataManagerImpl(pageCache, lg, tm);
 
         if(!dm.loadCheckPageOne()) {
             Recover.recover(tm, lg, pageCache);
         }
+        tm.abortLeftovers();
         //初始化pageIndex
         dm.loadPageIndex();
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        dm.startCheckpointer(config.checkpointInterval);
         return dm;
     }
 
-
+    private static boolean closedCleanly(PageCache pageCache) {
+        Page pg = null;
+        try {
+            pg = pageCache.getPage(1);
+        } catch (Exception e) {
+            Error.error(e);
+        }
+        boolean clean = PageOne.checkVc(pg);
+        pg.release();
+        return clean;
+    }
 }
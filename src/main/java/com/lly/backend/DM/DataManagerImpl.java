@@ -10,11 +10,17 @@ import com.lly.backend.DM.pageCache.PageCache;
 import com.lly.backend.DM.pageIndex.PageIndex;
 import com.lly.backend.DM.pageIndex.PageInfo;
 import com.lly.backend.TM.TransactionManager;
+import com.lly.backend.TM.TransactionManagerImpl;
 import com.lly.backend.common.AbstractCache;
 import com.lly.common.ErrorItem;
 import com.lly.common.utils.Error;
 import com.lly.common.utils.Types;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager{
     TransactionManager tm;
     Logger logger;
@@ -23,12 +29,20 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     PageIndex pageIndex;
     Page pageOne;
 
+    // 写过日志的事务和它第一条日志的LSN，检查点时移除已经结束的事务
+    ConcurrentHashMap<Long, Long> firstLSNs;
+    Lock checkpointLock;
+    long lastCheckpoint;    // 上一个检查点日志的LSN
+    Checkpointer checkpointer;
+
     public DataManagerImpl(PageCache pc, Logger lg, TransactionManager tm) {
         super(0);
         this.pc = pc;
         this.logger = lg;
         this.tm = tm;
-        this.pageIndex = new PageIndex();
+        this.pageIndex = new PageIndex(pc.getPageSize());
+        this.firstLSNs = new ConcurrentHashMap<>();
+        this.checkpointLock = new ReentrantLock();
     }
 
 
@@ -62,7 +76,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     @Override
     public long insert(long xid, byte[] data) throws Exception {
         byte[] raw = DataItem.wrapDataItemRaw(data);
-        if(raw.length > PageNormal.MAX_FREE_SPACE) {
+        int maxFreeSpace = PageNormal.maxFreeSpace(pc.getPageSize(), pc.getFormatVersion());
+        if(raw.length > maxFreeSpace) {
             throw ErrorItem.DataTooLargeException;
         }
         // 尝试获取可用页
@@ -74,8 +89,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
             }
             //没有可用页则新建一个页
             else {
-                int newPgno = pc.newPage(PageNormal.initRaw());
-                pageIndex.add(newPgno, PageNormal.MAX_FREE_SPACE);
+                int newPgno = pc.newPage(PageNormal.initRaw(pc.getPageSize(), pc.getFormatVersion()));
+                pageIndex.add(newPgno, maxFreeSpace);
             }
         }
         if(pi == null) {
@@ -86,10 +101,20 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         int freeSpace = 0;
         try {
             pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
-
-            short offset = PageNormal.insert(pg, raw);
+            //写日志和插入之间持有修改锁，页面的LSN不会先于这次插入越过它的日志
+            //写日志之前先把页面登记为脏页：检查点取得的重做起点如果越过了这条日志，它的脏页快照中一定有这个页面，
+            //写回时等待修改锁，写回的页面包含这次插入
+            short offset;
+            pg.updateLock();
+            try {
+                pg.setDirty(true);
+                byte[] log = Recover.insertLog(xid, pg, raw);
+                long lsn = logger.log(log);
+                logged(xid, lsn);
+                offset = PageNormal.insert(pg, raw, lsn);
+            } finally {
+                pg.updateUnlock();
+            }
 
             pg.release();
             return Types.addressToUid(pi.pgno, offset);
@@ -106,24 +131,134 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     }
 
 
+    @Override
+    public int getPageSize() {
+        return pc.getPageSize();
+    }
+
+    @Override
+    public void beginScan() {
+        pc.beginScan();
+    }
+
+    @Override
+    public void endScan() {
+        pc.endScan();
+    }
+
+    @Override
+    public void prefetch(long uid) {
+        uid >>>= 32;
+        pc.prefetch((int)(uid & ((1L << 32) - 1)), 1);
+    }
+
+    @Override
+    public void flushLog() {
+        logger.flush(logger.endLSN());
+    }
+
+    /*
+     * 提交的事务等待的不只是自己的日志，还包括同一线程中以超级事务写入的索引等日志，它们都在提交日志之前
+     */
+    @Override
+    public void flushLog(long lsn) {
+        logger.flush(lsn);
+    }
+
+    /*
+     * 先写日志再修改TM中的状态，检查点取得的未写入XID文件的事务，提交日志一定在检查点日志之前
+     */
+    @Override
+    public long logCommit(long xid) {
+        long lsn = logger.log(Recover.commitLog(xid));
+        tm.commit(xid);
+        return lsn;
+    }
+
+    @Override
+    public void logAbort(long xid) {
+        logger.log(Recover.abortLog(xid));
+        tm.abort(xid);
+    }
+
+    /*
+     * 登记事务的第一条日志，在持有页面修改锁、页面已经登记为脏页时调用
+     * 检查点在取得重做起点之后才取脏页快照，重做起点之前写入的日志所在的页面都在快照中，
+     * 写回这些页面要等待修改锁，所以这些日志在检查点统计活跃事务之前一定已经登记
+     */
+    private void logged(long xid, long lsn) {
+        if(xid != TransactionManagerImpl.SUPER_XID) {
+            firstLSNs.putIfAbsent(xid, lsn);
+        }
+    }
+
+    /*
+     * 启动后台检查点线程，interval为0时不启动
+     */
+    void startCheckpointer(long interval) {
+        if(interval > 0) {
+            checkpointer = new Checkpointer(this, interval);
+            checkpointer.start();
+        }
+    }
+
+    /*
+     * 模糊检查点：取得重做起点，写回全部脏页，再写入带有活跃事务的检查点日志
+     * 修改页面的线程在写日志之前把页面登记为脏页，并持有修改锁直到修改完成，
+     * 重做起点之前的日志作用的页面要么已经写回，要么在脏页快照中，写回时等待修改完成
+     * 检查点日志落盘后，它之前结束的事务的提交日志都已落盘，把这些事务的状态写入XID文件
+     * 最后删除重做起点和状态没有写入XID文件的事务的第一条日志之前的段
+     * 上一个检查点之后没有新的日志时什么也不做
+     */
+    void checkpoint() {
+        checkpointLock.lock();
+        try {
+            long redoLSN = logger.endLSN();
+            if(redoLSN == lastCheckpoint) {
+                return;
+            }
+            pc.flushAll();
+
+            Collection<Long> finished = tm.unsynced();
+            byte[] log = Recover.checkpointLog(redoLSN, pc.getPageNumber(), firstLSNs.keySet());
+            lastCheckpoint = logger.log(log);
+            logger.flush(lastCheckpoint);
+            tm.syncStatuses(finished);
+
+            // 状态还没有写入XID文件的事务，崩溃后要从日志中得知它是否提交，保留它的日志
+            firstLSNs.keySet().removeIf(xid -> tm.isFinished(xid));
+            long keep = redoLSN;
+            for(long lsn : firstLSNs.values()) {
+                keep = Math.min(keep, lsn);
+            }
+            logger.removeBefore(keep);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
     /*
-     * 关闭DataManager
+     * 关闭DataManager，先做一次检查点截断日志，页面写回时依赖日志先落盘，日志最后关闭
      */
     @Override
     public void close() {
         super.close();
-        logger.close();
+        if(checkpointer != null) {
+            checkpointer.stop();
+        }
+        checkpoint();
 
         PageOne.setVcClose(pageOne);
         pageOne.release();
         pc.close();
+        logger.close();
     }
 
     /*
      * 在创建文件时初始化PageOne并写入文件
      */
     public void initPageOne() {
-        int pageNo=pc.newPage(PageOne.InitRaw());
+        int pageNo=pc.newPage(PageOne.InitRaw(pc.getPageSize()));
         assert pageNo==1;
         try {
             pageOne=pc.getPage(1);
@@ -148,27 +283,38 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     /*
      * 在打开已有文件时，加载PageIndex
+     * 顺序扫描所有页面，同时提示页面缓存预读后续的页面
+     * 扫描同时完成缓存预热：上次关闭时缓存中的页面留在缓存中，其余页面只占用扫描环
      */
     public void loadPageIndex() {
         int pageNumber = pc.getPageNumber();
-        for(int i = 2; i <= pageNumber; i ++) {
-            Page pg = null;
-            try {
-                pg = pc.getPage(i);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        pc.beginScan();
+        try {
+            for(int i = 2; i <= pageNumber; i ++) {
+                pc.prefetch(i + 1, pageNumber - i);
+                Page pg = null;
+                try {
+                    pg = pc.getPage(i);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                pageIndex.add(pg.getPageNumber(), PageNormal.getFreeSpace(pg));
+                pg.release();
             }
-            pageIndex.add(pg.getPageNumber(), PageNormal.getFreeSpace(pg));
-            pg.release();
+        } finally {
+            pc.endScan();
         }
     }
 
     /*
      * 生成updateLog
+     * @return 日志的LSN
      */
-    public void logDataItem(long xid, DataItem dataItem) {
+    public long logDataItem(long xid, DataItem dataItem) {
         byte[] log = Recover.updateLog(xid, dataItem);
-        logger.log(log);
+        long lsn = logger.log(log);
+        logged(xid, lsn);
+        return lsn;
 
     }
 
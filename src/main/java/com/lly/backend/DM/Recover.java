@@ -11,249 +11,416 @@ import com.lly.backend.common.MySubArray;
 import com.lly.common.utils.Error;
 import com.lly.common.utils.Parser;
 
+import java.nio.ByteBuffer;
 import java.util.*;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 崩溃恢复
+ * 只顺序读一遍日志做分析，得到最大页号，并把需要重做的日志按页号分组、需要撤销的日志按事务分组
+ * 分析只保留每条日志定位用的头部和它在日志中的位置，重做和撤销时再按位置读出日志的内容，内存占用与日志长度无关
+ * 不同页面的重做互不影响，按页并行重做；活跃事务之间没有冲突的修改，按事务并行撤销
+ */
 public class Recover {
     //日志类型
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_CHECKPOINT = 2;
+    private static final byte LOG_TYPE_DELTA = 3;
+    private static final byte LOG_TYPE_COMMIT = 4;
+    private static final byte LOG_TYPE_ABORT = 5;
 
     //恢复类型
     private static final int REDO = 0;
     private static final int UNDO = 1;
 
+    // 重做和撤销使用的线程数
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
     // [LogType] [XID] [UID] [OldRaw] [NewRaw] -> [0][1:8][9:16][17:][]
     private static final int OF_TYPE = 0;//0
     private static final int OF_XID = OF_TYPE+1;//1
     private static final int OF_UPDATE_UID = OF_XID+8;//9
     private static final int OF_UPDATE_RAW = OF_UPDATE_UID+8;//17
 
+    // [LogType] [XID] [UID] [Range]... 只记录数据项中改变的字节
+    // Range: [Offset] [Length] [Before] [After]，Offset为在数据项中的偏移，Before和After长度都为Length
+    private static final int OF_RANGE_OFFSET = 0;
+    private static final int OF_RANGE_LENGTH = OF_RANGE_OFFSET+2;
+    private static final int OF_RANGE_DATA = OF_RANGE_LENGTH+2;
+
     // [LogType] [XID] [Pgno] [Offset] [Raw] -> [0][1:8][9:12][13:15][16:-1]
     private static final int OF_INSERT_PGNO = OF_XID+8;//9
     private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO+4;//13
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET+2;//15
 
+    // [LogType] [XID]，提交和取消日志只有这两个字段
+    private static final int OF_STATUS_END = OF_XID+8;//9
 
+    // [LogType] [RedoLSN] [PageNumber] [ActiveXID]... -> [0][1:8][9:12][13:]
+    private static final int OF_CHECKPOINT_REDO = OF_TYPE+1;//1
+    private static final int OF_CHECKPOINT_PAGES = OF_CHECKPOINT_REDO+8;//9
+    private static final int OF_CHECKPOINT_XIDS = OF_CHECKPOINT_PAGES+4;//13
 
-    static class InsertLogInfo {
+
+    /*
+     * 一条insert或update日志，分析时只解析定位用的头部，数据在重做或撤销时按start重新读出
+     */
+    static class LogRecord {
+        byte type;
         long xid;
         int pgno;
         short offset;
-        byte[] raw;
+        long lsn;
+        long start;    // 日志的起始位置
     }
-    static class UpdateLogInfo {
-        long xid;
-        int pgno;
-        short offset;
-        byte[] oldRaw;
-        byte[] newRaw;
+    static class CheckpointLogInfo {
+        long redoLSN;
+        int pageNumber;
+        long[] activeXids;
+    }
+
+    /*
+     * 分析的结果
+     */
+    static class Analysis {
+        int maxPgno = 1;    // 第一页为特殊页不会出现在日志中，至少存在一页
+        long redoLSN;    // 最后一个检查点的重做起点
+        long[] activeXids = new long[0];    // 最后一个检查点时写过日志、状态还没有写入XID文件的事务
+        Map<Long, Byte> finished = new HashMap<>();    // 日志中有提交或取消日志的事务和它的结束日志类型
+        Map<Integer, List<LogRecord>> redo = new HashMap<>();    // 已结束事务的日志，按页号分组，组内按LSN递增
+        Map<Long, List<LogRecord>> undo = new HashMap<>();    // 活跃事务的日志，按事务分组，组内按LSN递增
     }
+
     public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+        recover(tm, lg, pc, THREADS);
+    }
+
+    /*
+     * @param threads 重做和撤销使用的线程数
+     */
+    static void recover(TransactionManager tm, Logger lg, PageCache pc, int threads) {
         // 开始恢复过程
         System.out.println("Recovering...");
 
-        // 将日志回滚到开头
-        lg.rewind();
-        int maxPgno = 0;
-
-        // 遍历所有日志条目以找到最大页号
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            int pgno;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
-            }
-            if(pgno > maxPgno) {
-                maxPgno = pgno;
-            }
-        }
-
-        // 确保至少存在一页，因为第一页为特殊页不会出现在日志中
-        if(maxPgno == 0) {
-            maxPgno = 1;
-        }
+        Analysis an = analyze(tm, lg);
 
         // 将页面缓存截断到最大页号
-        pc.truncateByPgno(maxPgno);
-        System.out.println("Truncate to " + maxPgno + " pages.");
+        pc.truncateByPgno(an.maxPgno);
+        System.out.println("Truncate to " + an.maxPgno + " pages.");
 
-        // 重做事务
-        redoTranscations(tm, lg, pc);
-        System.out.println("Redo Transactions Over.");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // 重做事务
+            redoTranscations(pc, lg, an, pool);
+            System.out.println("Redo Transactions Over.");
 
-        // 撤销事务
-        undoTranscations(tm, lg, pc);
-        System.out.println("Undo Transactions Over.");
+            // 撤销事务
+            undoTranscations(tm, pc, lg, an, pool);
+            System.out.println("Undo Transactions Over.");
+        } finally {
+            pool.shutdown();
+        }
 
         // 结束恢复过程
         System.out.println("Recovery Over.");
     }
 
-
-
     /*
-     *重做已经提交的事务
+     * 从头读一遍日志，检查点之后不再需要的段已经删除，只需扫描最后一个检查点附近的日志
+     * 事务的提交日志可能在它的修改之后很远，读完日志才能确定每个事务是否结束：
+     * 日志中有提交或取消日志的事务已经结束，其余的以XID文件为准，每个事务只查询一次
+     * 已结束事务LSN不超过最后一个检查点重做起点的日志已经随页面落盘，不需要重做
+     * 最后一个检查点记录的活跃事务仍然活跃时，即使它的日志已经不在日志中也要撤销，恢复结束时标记为取消
      */
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pageCache){
+    private static Analysis analyze(TransactionManager tm, Logger lg) {
+        Analysis an = new Analysis();
+        List<LogRecord> records = new ArrayList<>();
         lg.rewind();
-        while(true){
+        while(true) {
             byte[] log = lg.next();
             if(log == null) break;
-            if(isInsertLog(log)){
-                InsertLogInfo insertInfo = parseInsertLog(log);
-                long xid = insertInfo.xid;
-                //如果事务为commit或者abort状态
-                if(!tm.isAlive(xid)){
-                    doInsertLog(pageCache,insertInfo,REDO);
-                }
-            }else {
-                UpdateLogInfo updateInfo = parseUpdateLog(log);
-                long xid = updateInfo.xid;
-                //如果事务为commit或者abort状态
-                if(!tm.isAlive(xid)){
-                    doUpdateLog(pageCache,updateInfo,REDO);
-                }
+            byte type = log[OF_TYPE];
+            if(type == LOG_TYPE_CHECKPOINT) {
+                // 检查点之前创建的页面都已经写入文件，不一定出现在之后的日志中
+                CheckpointLogInfo ci = parseCheckpointLog(log);
+                an.maxPgno = Math.max(an.maxPgno, ci.pageNumber);
+                an.redoLSN = ci.redoLSN;
+                an.activeXids = ci.activeXids;
+                continue;
+            }
+            if(type == LOG_TYPE_COMMIT || type == LOG_TYPE_ABORT) {
+                an.finished.put(ByteBuffer.wrap(log).getLong(OF_XID), type);
+                continue;
             }
+            LogRecord r = parseLogRecord(log, lg.lastLSN(), lg.lastStart());
+            an.maxPgno = Math.max(an.maxPgno, r.pgno);
+            records.add(r);
         }
-    }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc){
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while (true){
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(tm.isAlive(xid)){
-                    logCache.getOrDefault(xid, new ArrayList<>()).add(log);
-                }
+        Map<Long, Boolean> alive = new HashMap<>();
+        for(long x : an.activeXids) {
+            if(alive.computeIfAbsent(x, xid -> !an.finished.containsKey(xid) && tm.isAlive(xid))) {
+                an.undo.computeIfAbsent(x, xid -> new ArrayList<>());
             }
-            else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(tm.isAlive(xid)){
-                    logCache.getOrDefault(xid, new ArrayList<>()).add(log);
-                }
+        }
+        for(LogRecord r : records) {
+            if(alive.computeIfAbsent(r.xid, xid -> !an.finished.containsKey(xid) && tm.isAlive(xid))) {
+                an.undo.computeIfAbsent(r.xid, x -> new ArrayList<>()).add(r);
+            } else if(r.lsn > an.redoLSN) {
+                an.redo.computeIfAbsent(r.pgno, x -> new ArrayList<>()).add(r);
             }
         }
+        return an;
+    }
+
+    /*
+     *重做已经结束的事务，每个页面一个任务，按LSN顺序重做
+     *页面的PageLSN不小于日志的LSN时，说明日志已经作用在落盘的页面上，跳过
+     */
+    private static void redoTranscations(PageCache pc, Logger lg, Analysis an, ExecutorService pool) {
+        List<Future<?>> tasks = new ArrayList<>();
+        for(Map.Entry<Integer, List<LogRecord>> entry : an.redo.entrySet()) {
+            tasks.add(pool.submit(() -> {
+                Page pg = getPage(pc, entry.getKey());
+                try {
+                    long pageLSN = PageNormal.getPageLSN(pg);
+                    for(LogRecord r : entry.getValue()) {
+                        if(r.lsn > pageLSN) {
+                            apply(pg, r, lg.read(r.start), REDO);
+                        }
+                    }
+                } finally {
+                    pg.release();
+                }
+            }));
+        }
+        waitAll(tasks);
+    }
 
-        // 进行active的事务的log进行倒序undo
-        for(Map.Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size()-1; i >= 0; i --) {
-                byte[] log = logs.get(i);
-                if(isInsertLog(log)) {
-                    doInsertLog(pc, parseInsertLog(log), UNDO);
-                } else {
-                    doUpdateLog(pc, parseUpdateLog(log), UNDO);
+    /*
+     *撤销活跃的事务，每个事务一个任务，倒序撤销
+     *全部撤销完成后，把撤销的事务标记为abort，和日志中结束的事务一起写入XID文件，只force一次
+     */
+    private static void undoTranscations(TransactionManager tm, PageCache pc, Logger lg, Analysis an, ExecutorService pool) {
+        List<Future<?>> tasks = new ArrayList<>();
+        for(List<LogRecord> records : an.undo.values()) {
+            tasks.add(pool.submit(() -> {
+                for(int i = records.size()-1; i >= 0; i --) {
+                    LogRecord r = records.get(i);
+                    Page pg = getPage(pc, r.pgno);
+                    try {
+                        apply(pg, r, lg.read(r.start), UNDO);
+                    } finally {
+                        pg.release();
+                    }
                 }
+            }));
+        }
+        waitAll(tasks);
+        for(Map.Entry<Long, Byte> entry : an.finished.entrySet()) {
+            if(entry.getValue() == LOG_TYPE_COMMIT) {
+                tm.commit(entry.getKey());
+            } else {
+                tm.abort(entry.getKey());
             }
-            tm.abort(entry.getKey());
         }
+        for(long xid : an.undo.keySet()) {
+            tm.abort(xid);
+        }
+        tm.syncStatuses(tm.unsynced());
     }
 
-    private static void doUpdateLog(PageCache pageCache, UpdateLogInfo updateInfo, int flag) {
-        int pgno=updateInfo.pgno;
-        short offset=updateInfo.offset;
-        byte[] raw;
-        if(flag==UNDO) {
-            raw = updateInfo.oldRaw;
-        }else{
-            raw = updateInfo.newRaw;
-        }
-        Page pg = null;
+    private static Page getPage(PageCache pc, int pgno) {
         try {
-            pg = pageCache.getPage(pgno);
+            return pc.getPage(pgno);
         } catch (Exception e) {
             Error.error(e);
+            return null;
         }
+    }
 
-        try {
-            PageNormal.recoverUpdate(pg, raw, offset);
-        } finally {
-            pg.release();
+    private static void waitAll(List<Future<?>> tasks) {
+        for(Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Error.error(e);
+            } catch (ExecutionException e) {
+                Error.error(new RuntimeException(e.getCause()));
+            }
         }
     }
 
     /*
-     *redo或者undo一个commit或者abort的事务中的一条Insert日志
+     *redo或者undo一条日志
+     *重做时把页面的PageLSN推进到日志的LSN，撤销时不修改PageLSN
      */
-    private static void doInsertLog(PageCache pageCache, InsertLogInfo logInfo, int flag) {
-        Page pg = null;
-        try {
-            pg = pageCache.getPage(logInfo.pgno);
-        } catch (Exception e) {
-            Error.error(e);
-        }
-        try {
-            if(flag==UNDO){
+    private static void apply(Page pg, LogRecord r, byte[] log, int flag) {
+        long lsn = flag == REDO ? r.lsn : 0;
+        if(r.type == LOG_TYPE_INSERT) {
+            byte[] raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
+            if(flag == UNDO) {
                 //逻辑删除
-                DataItem.setDataItemRawInvalid(logInfo.raw);
+                DataItem.setDataItemRawInvalid(raw);
+            }
+            PageNormal.recoverInsert(pg, raw, r.offset, lsn);
+        } else if(r.type == LOG_TYPE_UPDATE) {
+            // oldRaw和newRaw类型相同，长度相同
+            int length = (log.length - OF_UPDATE_RAW) / 2;
+            int start = flag == UNDO ? OF_UPDATE_RAW : OF_UPDATE_RAW + length;
+            PageNormal.recoverUpdate(pg, Arrays.copyOfRange(log, start, start + length), r.offset, lsn);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(log);
+            for(int pos = OF_UPDATE_RAW; pos < log.length; ) {
+                int offset = Short.toUnsignedInt(buf.getShort(pos + OF_RANGE_OFFSET));
+                int length = Short.toUnsignedInt(buf.getShort(pos + OF_RANGE_LENGTH));
+                int start = pos + OF_RANGE_DATA + (flag == UNDO ? 0 : length);
+                PageNormal.recoverUpdate(pg, Arrays.copyOfRange(log, start, start + length), (short)(r.offset + offset), lsn);
+                pos += OF_RANGE_DATA + 2 * length;
             }
-            PageNormal.recoverInsert(pg, logInfo.raw, logInfo.offset);
         }
-        finally {
-            pg.release();
+    }
+
+    /*
+     *解析insert或update日志的头部，不保留日志的内容
+     */
+    private static LogRecord parseLogRecord(byte[] log, long lsn, long start) {
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        LogRecord r = new LogRecord();
+        r.type = log[OF_TYPE];
+        r.xid = buf.getLong(OF_XID);
+        r.lsn = lsn;
+        r.start = start;
+        if(r.type == LOG_TYPE_INSERT) {
+            r.pgno = buf.getInt(OF_INSERT_PGNO);
+            r.offset = buf.getShort(OF_INSERT_OFFSET);
+        } else {
+            long uid = buf.getLong(OF_UPDATE_UID);
+            // 从UID中提取低16位作为offset，高32位作为pgno
+            r.offset = (short)(uid & ((1L << 16) - 1));
+            r.pgno = (int)(uid >>> 32);
         }
+        return r;
     }
 
-    private static UpdateLogInfo parseUpdateLog(byte[] log) {
-        //[LogType] [XID] [UID] [OldRaw] [NewRaw]
-        UpdateLogInfo li = new UpdateLogInfo();
-        li.xid = Parser.getLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.getLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        // 从UID中提取低16位作为offset
-        li.offset = (short)(uid & ((1L << 16) - 1));
-        // 从UID中提取低32-64位作为pgno
-        uid >>>= 32;
-        li.pgno = (int)(uid & ((1L << 32) - 1));
-        // 计算oldRaw和newRaw的长度，因为他们类型相同，长度相同
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        li.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW+length);
-        li.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW+length, OF_UPDATE_RAW+length*2);
-        return li;
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        CheckpointLogInfo ci = new CheckpointLogInfo();
+        ci.redoLSN = buf.getLong(OF_CHECKPOINT_REDO);
+        ci.pageNumber = buf.getInt(OF_CHECKPOINT_PAGES);
+        ci.activeXids = new long[(log.length - OF_CHECKPOINT_XIDS) / 8];
+        for(int i = 0; i < ci.activeXids.length; i ++) {
+            ci.activeXids[i] = buf.getLong(OF_CHECKPOINT_XIDS + i * 8);
+        }
+        return ci;
     }
 
-    private static InsertLogInfo parseInsertLog(byte[] log) {
+    /*
+     *生成一条提交日志，提交日志落盘时事务提交完成
+     */
+    public static byte[] commitLog(long xid) {
+        return statusLog(LOG_TYPE_COMMIT, xid);
+    }
 
-        InsertLogInfo insertLogInfo = new InsertLogInfo();
-        insertLogInfo.xid = Parser.getLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        insertLogInfo.pgno = Parser.getInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        insertLogInfo.offset = Parser.getShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        insertLogInfo.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
-        return insertLogInfo;
+    /*
+     *生成一条取消日志，不需要等待落盘
+     */
+    public static byte[] abortLog(long xid) {
+        return statusLog(LOG_TYPE_ABORT, xid);
     }
 
-    private static boolean isInsertLog(byte[] log) {
-        return log[0] == LOG_TYPE_INSERT;
+    private static byte[] statusLog(byte type, long xid) {
+        byte[] log = new byte[OF_STATUS_END];
+        ByteBuffer.wrap(log).put(type).putLong(xid);
+        return log;
     }
 
     /*
      *生成一条insert日志
      */
     public static byte[] insertLog(long xid, Page pg, byte[] raw) {
-        byte[] logTypeRaw = {LOG_TYPE_INSERT};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageNormal.getFSO(pg));
-        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+        byte[] log = new byte[OF_INSERT_RAW + raw.length];
+        ByteBuffer.wrap(log)
+                .put(LOG_TYPE_INSERT)
+                .putLong(xid)
+                .putInt(pg.getPageNumber())
+                .putShort(PageNormal.getFSO(pg))
+                .put(raw);
+        return log;
     }
 
+    /*
+     *生成一条检查点日志
+     * @param redoLSN 检查点开始时日志的末尾，在此之前的修改都已经随页面落盘
+     * @param pageNumber 检查点时的页数
+     * @param activeXids 检查点时写过日志的活跃事务
+     */
+    public static byte[] checkpointLog(long redoLSN, int pageNumber, Collection<Long> activeXids) {
+        byte[] logType = {LOG_TYPE_CHECKPOINT};
+        byte[] raw = Bytes.concat(logType, Parser.long2Byte(redoLSN), Parser.int2Byte(pageNumber));
+        for(long xid : activeXids) {
+            raw = Bytes.concat(raw, Parser.long2Byte(xid));
+        }
+        return raw;
+    }
+
+    /*
+     *生成一条update日志，只记录新旧数据不同的字节，改变的字节较多时记录完整的新旧数据
+     *先计算日志长度，再把数据直接写入日志，只分配日志本身
+     */
     public static byte[] updateLog(long xid, DataItem di) {
-        byte[] logType = {LOG_TYPE_UPDATE};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(di.getUid());
         byte[] oldRaw = di.getOldRaw();
         MySubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        int deltaSize = writeRanges(oldRaw, raw, null);
+        boolean delta = deltaSize < 2 * oldRaw.length;
+        byte[] log = new byte[OF_UPDATE_RAW + (delta ? deltaSize : 2 * oldRaw.length)];
+        ByteBuffer buf = ByteBuffer.wrap(log)
+                .put(delta ? LOG_TYPE_DELTA : LOG_TYPE_UPDATE)
+                .putLong(xid)
+                .putLong(di.getUid());
+        if(delta) {
+            writeRanges(oldRaw, raw, buf);
+        } else {
+            buf.put(oldRaw).put(buf.position(), raw.raw, raw.start, raw.end - raw.start);
+        }
+        return log;
+    }
+
+    /*
+     *把oldRaw和newRaw不同的字节按区间写入buf，返回全部区间占用的长度，buf为null时只计算长度
+     *两个区间之间相同的字节很少时，合并为一个区间比多记录一个区间头更短
+     */
+    private static int writeRanges(byte[] oldRaw, MySubArray newRaw, ByteBuffer buf) {
+        ByteBuffer raw = newRaw.raw;
+        int base = newRaw.start;
+        int size = 0;
+        int i = 0;
+        while(true) {
+            while(i < oldRaw.length && oldRaw[i] == raw.get(base + i)) i ++;
+            if(i == oldRaw.length) {
+                return size;
+            }
+            int from = i, to = i + 1;
+            for(int j = to; j < oldRaw.length && 2 * (j - to) < OF_RANGE_DATA; j ++) {
+                if(oldRaw[j] != raw.get(base + j)) {
+                    to = j + 1;
+                }
+            }
+            int length = to - from;
+            if(buf != null) {
+                buf.putShort((short)from)
+                        .putShort((short)length)
+                        .put(oldRaw, from, length)
+                        .put(buf.position(), raw, base + from, length);
+                buf.position(buf.position() + length);
+            }
+            size += OF_RANGE_DATA + 2 * length;
+            i = to;
+        }
     }
 
 
@@ -7,7 +7,7 @@ import com.lly.backend.common.MySubArray;
 import com.lly.common.utils.Parser;
 import com.lly.common.utils.Types;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public interface DataItem {
 
@@ -32,8 +32,8 @@ public interface DataItem {
 
     // 从页面的offset处解析处dataItem
     public  static DataItem parseDataItem(Page page, short offset, DataManagerImpl dm) {
-        byte[] raw = page.getData();
-        short size = Parser.getShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OFFSET_SIZE, offset+DataItemImpl.OFFSET_DATA));
+        ByteBuffer raw = page.getBuffer();
+        short size = raw.getShort(offset+DataItemImpl.OFFSET_SIZE);
         short length = (short)(size + DataItemImpl.OFFSET_DATA);
         long uid = Types.addressToUid(page.getPageNumber(), offset);
         return new DataItemImpl(new MySubArray(raw, offset, offset+length), new byte[length], page, uid, dm);
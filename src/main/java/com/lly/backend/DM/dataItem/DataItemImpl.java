@@ -2,6 +2,7 @@ package com.lly.backend.DM.dataItem;
 
 import com.lly.backend.DM.DataManagerImpl;
 import com.lly.backend.DM.page.Page;
+import com.lly.backend.DM.page.PageNormal;
 import com.lly.backend.common.MySubArray;
 
 import java.util.concurrent.locks.Lock;
@@ -40,7 +41,7 @@ public class DataItemImpl implements DataItem{
         wLock = lock.writeLock();
     }
     public boolean isValid() {
-        return raw.raw[raw.start+OFFSET_VALID] == (byte)0;
+        return raw.raw.get(raw.start+OFFSET_VALID) == (byte)0;
     }
 
     @Override
@@ -50,13 +51,14 @@ public class DataItemImpl implements DataItem{
 
     /*
      * 在修改数据之前调用，包括加锁，设置脏页，保存旧数据
-     * 写锁的释放在撤销修改或者提交修改时释放
+     * 写锁和页面的修改锁在撤销修改或者提交修改时释放
      */
     @Override
     public void before() {
         wLock.lock();
+        pg.updateLock();
         pg.setDirty(true);
-        System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
+        raw.raw.get(raw.start, oldRaw);
     }
 
     /*
@@ -65,17 +67,20 @@ public class DataItemImpl implements DataItem{
      */
     @Override
     public void unBefore() {
-        System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        raw.raw.put(raw.start, oldRaw);
+        pg.updateUnlock();
         wLock.unlock();
 
     }
 
     /*
-     * 在修改数据之后调用，包括记录日志，释放写锁
+     * 在修改数据之后调用，包括记录日志，更新页面的LSN，释放写锁
      */
     @Override
     public void after(long xid) {
-        dm.logDataItem(xid, this);
+        long lsn = dm.logDataItem(xid, this);
+        PageNormal.setPageLSN(pg, lsn);
+        pg.updateUnlock();
         wLock.unlock();
     }
 
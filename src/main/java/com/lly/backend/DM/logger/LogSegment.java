@@ -0,0 +1,182 @@
+package com.lly.backend.DM.logger;
+
+import com.lly.common.ErrorItem;
+import com.lly.common.utils.Error;
+import com.lly.common.utils.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个日志段文件，文件名为 path.log.段号
+ * 段文件结构 [BaseLSN][Record]...
+ * BaseLSN: 8字节 段号乘以段大小，即段中第一个字节的LSN，用于确认段文件没有被错放
+ * 日志不跨段，段内剩余空间放不下一条日志时，从下一个段开始写
+ */
+class LogSegment {
+
+    static final int HEADER_SIZE = 8;
+
+    final long segno;
+    private RandomAccessFile file;
+    private FileChannel fc;
+
+    private LogSegment(long segno, RandomAccessFile file) {
+        this.segno = segno;
+        this.file = file;
+        this.fc = file.getChannel();
+    }
+
+    static File fileOf(String path, long segno) {
+        return new File(String.format("%s%s.%08d", path, LoggerImpl.LOG_SUFFIX, segno));
+    }
+
+    /*
+     * 按段号升序列出已有的段
+     */
+    static List<Long> list(String path) {
+        File f = new File(path).getAbsoluteFile();
+        String prefix = f.getName() + LoggerImpl.LOG_SUFFIX + ".";
+        List<Long> segnos = new ArrayList<>();
+        File[] files = f.getParentFile().listFiles();
+        if(files == null) {
+            return segnos;
+        }
+        for(File file : files) {
+            String name = file.getName();
+            if(!name.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                segnos.add(Long.parseLong(name.substring(prefix.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(segnos);
+        return segnos;
+    }
+
+    /*
+     * 创建一个新段并写入段头，已存在的同名文件是崩溃时没有写完的段，直接覆盖
+     */
+    static LogSegment create(String path, long segno, long segmentSize) {
+        LogSegment seg = null;
+        try {
+            seg = new LogSegment(segno, new RandomAccessFile(fileOf(path, segno), "rw"));
+            seg.fc.truncate(0);
+            ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(segno * segmentSize));
+            while(buf.hasRemaining()) {
+                seg.fc.write(buf, buf.position());
+            }
+            seg.fc.force(false);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return seg;
+    }
+
+    /*
+     * 打开一个段，段头不完整或与段号不符时返回null
+     */
+    static LogSegment open(String path, long segno, long segmentSize) {
+        File f = fileOf(path, segno);
+        if(!f.canRead() || !f.canWrite()) {
+            Error.error(ErrorItem.FileCannotRWException);
+        }
+        LogSegment seg = null;
+        try {
+            seg = new LogSegment(segno, new RandomAccessFile(f, "rw"));
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+            if(seg.read(buf, 0) < HEADER_SIZE || Parser.getLong(buf.array()) != segno * segmentSize) {
+                seg.close();
+                return null;
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return seg;
+    }
+
+    /*
+     * 从段内偏移offset开始读满dst，返回读到的字节数，到文件末尾为止
+     */
+    int read(ByteBuffer dst, long offset) {
+        int start = dst.position();
+        try {
+            while(dst.hasRemaining()) {
+                if(fc.read(dst, offset + dst.position() - start) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return dst.position() - start;
+    }
+
+    void write(ByteBuffer src, long offset) {
+        int start = src.position();
+        try {
+            while(src.hasRemaining()) {
+                fc.write(src, offset + src.position() - start);
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    /*
+     * 把srcs的前length个缓冲区依次写入段内偏移offset处
+     * 聚集写没有指定位置的版本，使用通道的位置，只有刷盘线程写入段文件，读取都使用指定位置的版本
+     */
+    void write(ByteBuffer[] srcs, int length, long offset) {
+        try {
+            fc.position(offset);
+            while(srcs[length - 1].hasRemaining()) {
+                fc.write(srcs, 0, length);
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    long size() {
+        try {
+            return fc.size();
+        } catch (IOException e) {
+            Error.error(e);
+            return 0;
+        }
+    }
+
+    void truncate(long size) {
+        try {
+            fc.truncate(size);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    void force() {
+        try {
+            fc.force(false);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    void close() {
+        try {
+            fc.close();
+            file.close();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+}
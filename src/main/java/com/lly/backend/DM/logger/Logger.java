@@ -2,73 +2,64 @@ package com.lly.backend.DM.logger;
 
 import com.lly.common.ErrorItem;
 import com.lly.common.utils.Error;
-import com.lly.common.utils.Parser;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.List;
 
 public interface Logger {
-    void log(byte[] data);
+    // 写入一条日志，返回日志的LSN，即日志结束处在日志逻辑地址空间中的偏移，不等待日志落盘
+    long log(byte[] data);
+    // 保证LSN不超过lsn的日志都已经落盘
+    void flush(long lsn);
+    // 上一次next返回的日志的LSN
+    long lastLSN();
+    // 已经写入的最后一条日志的LSN，可能还没有落盘
+    long endLSN();
     void truncate(long x) throws Exception;
+    // 删除全部日志都在lsn之前的段
+    void removeBefore(long lsn);
     byte[] next();
+    // 上一次next返回的日志的起始位置
+    long lastStart();
+    // 重新读出起始位置为start的日志，start由lastStart得到，可以多个线程并发读取
+    byte[] read(long start);
     void rewind();
     void close();
 
     public static Logger create(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
+        File f = LogSegment.fileOf(path, 0);
         System.out.println("log file path: " + f.getAbsolutePath());
-        try {
-            if(!f.createNewFile()) {
-                Error.error(ErrorItem.FileExistsException);
-            }
-        } catch (Exception e) {
-            Error.error(e);
+        if(!LogSegment.list(path).isEmpty()) {
+            Error.error(ErrorItem.FileExistsException);
         }
-        if(!f.canRead() || !f.canWrite()) {
-           Error.error(ErrorItem.FileCannotRWException);
-        }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Error.error(e);
-        }
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
-        } catch (Exception e) {
-            Error.error(e);
+        return new LoggerImpl(path, LogSegment.create(path, 0, LoggerImpl.SEGMENT_SIZE));
+    }
+
+    /**
+     * 早期版本的日志是单个文件，记录格式不同，无法重放
+     * 数据库正常关闭时旧日志中没有需要恢复的内容，保留为.log.v0后创建新的分段日志，调用者负责检查
+     */
+    public static Logger upgrade(String path) {
+        File old = new File(path + LoggerImpl.LOG_SUFFIX);
+        if(old.exists() && !old.renameTo(new File(path + LoggerImpl.LOG_SUFFIX + ".v0"))) {
+            Error.error(ErrorItem.FileCannotRWException);
         }
+        return create(path);
+    }
 
-        return new LoggerImpl(raf, fc, 0);
+    /**
+     * 是否已有分段日志
+     */
+    public static boolean exists(String path) {
+        return !LogSegment.list(path).isEmpty();
     }
 
     public static Logger open(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
-        System.out.println("log file path: " + f.getAbsolutePath());
-        if (!f.exists()) {
+        List<Long> segnos = LogSegment.list(path);
+        System.out.println("log file path: " + new File(path + LoggerImpl.LOG_SUFFIX).getAbsolutePath() + ".*");
+        if (segnos.isEmpty()) {
             Error.error(ErrorItem.FileNotExistsException);
         }
-        if (!f.canRead() || !f.canWrite()) {
-            Error.error(ErrorItem.FileCannotRWException);
-        }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Error.error(e);
-        }
-        return new LoggerImpl(raf, fc);
-
-
+        return new LoggerImpl(path, segnos);
     }
 }
@@ -4,195 +4,461 @@ import com.lly.common.ErrorItem;
 import com.lly.common.utils.Error;
 import com.lly.common.utils.Parser;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
-import com.google.common.primitives.Bytes;
-
+/**
+ * 日志文件的读写
+ * 日志由固定大小的段文件组成，LSN是日志在所有段连成的逻辑地址空间中的偏移，段号为LSN除以段大小
+ * 每条日志的格式为[Size][Checksum][Data]，Checksum为Size和Data的CRC32C，追加日志不需要改写文件头
+ * 组提交：log只把日志追加到内存缓冲区并返回LSN，由后台刷盘线程把缓冲区中的日志一次写入并force
+ * 提交的事务只需等待自己的LSN落盘，并发提交的事务共享一次force
+ * 缓冲区是预先分配的堆外环形缓冲区，日志直接序列化到其中，追加日志不分配内存
+ * 刷盘线程按段把缓冲区中连续的日志用聚集写一次写入文件，缓冲区满时追加日志的线程等待刷盘
+ */
 public class LoggerImpl implements Logger{
 
-    // 随机数种子防止hash碰撞
-    private static final int SEED = 13331;
-    
     public static final String LOG_SUFFIX = ".log";
 
+    // 段大小
+    static final long SEGMENT_SIZE = 1 << 24;
+
     private static final int OF_SIZE = 0;
     private static final int OF_CHECKSUM = OF_SIZE + 4;
     private static final int OF_DATA = OF_CHECKSUM + 4;
 
-    private RandomAccessFile file;
-    private FileChannel fc;
+    // 环形缓冲区大小，不小于一条日志的最大长度
+    private static final int RING_SIZE = 1 << 22;
+    // 缓冲区中未落盘的日志超过这个大小时，不等提交就唤醒刷盘线程
+    private static final int FLUSH_THRESHOLD = 1 << 20;
+
+    // 每个线程复用一个CRC32C计算校验和
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    private String path;
     private Lock lock;
+    private Condition flushRequested;    // 有日志等待落盘
+    private Condition flushed;    // 一批日志落盘完成，缓冲区有了空闲空间
+
+    private long firstSegno;  // 最早的段
+    private LogSegment writeSegment;  // 正在写入的段，只由刷盘线程使用
+    private LogSegment readSegment;  // next正在读取的段
 
     private long position;  // 当前日志指针的位置
-    private long fileSize;  // 初始化时记录，log操作不更新
-    private int xChecksum;
+    private long lastStart;  // 上一次next返回的日志的起始位置
+    private ConcurrentHashMap<Long, LogSegment> readers;  // read按位置读取日志时打开的段
+    private long end;  // 日志的末尾，下一条日志的起始位置，包括缓冲区中未落盘的日志
+    private volatile long flushedLSN;  // 已经落盘的日志的末尾
+    private long requestedLSN;  // 等待落盘的最大LSN
+    private ByteBuffer ring;  // 已经分配LSN、还未写入文件的日志，只使用绝对位置读写
+    private ByteBuffer[] views;  // 刷盘线程聚集写使用的缓冲区视图，环形缓冲区回绕时分为两段
+    private long ringHead;  // 缓冲区中第一条未落盘日志的位置，单调递增，对RING_SIZE取模为实际下标
+    private long ringTail;  // 缓冲区中下一条日志的写入位置
+    private boolean running;
+    private Thread flusher;
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
+    /*
+     * 打开已有的日志，segnos为按段号升序排列的全部段
+     */
+    LoggerImpl(String path, List<Long> segnos) {
+        this.path = path;
+        this.readers = new ConcurrentHashMap<>();
         lock = new ReentrantLock();
-        init();
+        init(segnos);
+        startFlusher();
     }
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
-        this.xChecksum = xChecksum;
+
+    /*
+     * 新建的日志，只有一个空的段
+     */
+    LoggerImpl(String path, LogSegment segment) {
+        this.path = path;
+        this.firstSegno = segment.segno;
+        this.writeSegment = segment;
+        this.end = segment.segno * SEGMENT_SIZE + LogSegment.HEADER_SIZE;
+        this.flushedLSN = end;
+        this.readers = new ConcurrentHashMap<>();
         lock = new ReentrantLock();
+        rewind();
+        startFlusher();
+    }
+
+    private void startFlusher() {
+        flushRequested = lock.newCondition();
+        flushed = lock.newCondition();
+        ring = ByteBuffer.allocateDirect(RING_SIZE);
+        views = new ByteBuffer[] { ring.duplicate(), ring.duplicate() };
+        requestedLSN = flushedLSN;
+        running = true;
+        flusher = new Thread(this::flushLoop, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
     }
 
     /*
-     * 打开一个日志文件做的初始化工作，检查校验和，处理尾部坏日志
+     * 打开日志做的初始化工作，只检查最后一个段，处理尾部坏日志
+     * 切换到新段之前旧段已经完整落盘，前面的段不需要检查
      */
-    private void init() {
-        long fileSize = 0;
-        try {
-            fileSize = fc.size();
-        } catch (Exception e) {
-            Error.error(e);
+    private void init(List<Long> segnos) {
+        firstSegno = segnos.get(0);
+        int tail = segnos.size() - 1;
+        LogSegment segment = LogSegment.open(path, segnos.get(tail), SEGMENT_SIZE);
+        if(segment == null && tail > 0) {
+            // 崩溃时新段的段头还没有落盘，段中不会有已经落盘的日志
+            LogSegment.fileOf(path, segnos.get(tail)).delete();
+            tail --;
+            segment = LogSegment.open(path, segnos.get(tail), SEGMENT_SIZE);
         }
-        if (fileSize < 4) {
+        if(segment == null) {
             Error.error(ErrorItem.BadLogFileException);
         }
-        // 读取校验和
-        ByteBuffer raw = ByteBuffer.allocate(4);
-        try {
-            fc.read(raw, 0);
-        } catch (Exception e) {
-            Error.error(e);
-        }
-        int xChecksum = Parser.getInt(raw.array());
-        this.fileSize = fileSize;
-        this.xChecksum = xChecksum;
+        writeSegment = segment;
 
         checkAndRemoveTail();
-
     }
 
-    // 检查并移除bad tail
+    // 检查并移除最后一个段的bad tail
     private void checkAndRemoveTail() {
-        //指针回到第一条日志的起点
-        rewind();
-        int xCheck = 0;
-        // 遍历每一条日志，计算Checksum，并求和得到XChecksum
+        position = writeSegment.segno * SEGMENT_SIZE + LogSegment.HEADER_SIZE;
         while(true) {
-            byte[] log = internNext();
+            byte[] log = readLog(writeSegment, position % SEGMENT_SIZE);
             if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if (xCheck!=xChecksum){
-            Error.error(ErrorItem.BadLogFileException);
+            position += log.length;
         }
-        // 截断文件到正常日志的末尾
+        // 截断段文件到正常日志的末尾
         try {
             truncate(position);
         } catch (Exception e) {
             Error.error(e);
         }
-        //移动文件指针到文件末尾
-        try {
-            file.seek(position);
-        }
-        catch (Exception e) {
-            Error.error(e);
-        }
+        end = position;
+        flushedLSN = end;
         rewind();
     }
 
     /*
-     * 读取下一条日志,如果校验和错误，返回null
+     * 读取下一条日志，当前段读完时转到下一个段
+     * 最后一个段中校验失败的日志是崩溃时没写完的坏尾，之前的段中出现校验失败说明日志损坏
      */
     private byte[] internNext() {
-        // 如果当前位置+日志长度大于文件大小，代表已经读完了
-        if(position + OF_DATA >= fileSize) {
+        while(true) {
+            long segno = position / SEGMENT_SIZE;
+            long offset = position % SEGMENT_SIZE;
+            LogSegment segment = segmentForRead(segno);
+            if(segment == null) {
+                return null;
+            }
+            boolean hasNext = LogSegment.fileOf(path, segno + 1).exists();
+            if(offset < segment.size()) {
+                byte[] log = readLog(segment, offset);
+                if(log != null) {
+                    lastStart = position;
+                    position += log.length;
+                    return log;
+                }
+                if(hasNext) {
+                    Error.error(ErrorItem.BadLogFileException);
+                }
+            }
+            if(!hasNext) {
+                return null;
+            }
+            position = (segno + 1) * SEGMENT_SIZE + LogSegment.HEADER_SIZE;
+        }
+    }
+
+    private LogSegment segmentForRead(long segno) {
+        if(readSegment != null && readSegment.segno == segno) {
+            return readSegment;
+        }
+        if(readSegment != null) {
+            readSegment.close();
+        }
+        readSegment = LogSegment.open(path, segno, SEGMENT_SIZE);
+        return readSegment;
+    }
+
+    /*
+     * 读取段内offset处的一条日志，不完整或校验和错误时返回null
+     */
+    private byte[] readLog(LogSegment segment, long offset) {
+        if(offset + OF_DATA > SEGMENT_SIZE) {
             return null;
         }
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try{
-            fc.position(position);
-            fc.read(tmp);
-        } catch (Exception e) {
-            Error.error(e);
+        ByteBuffer tmp = ByteBuffer.allocate(OF_DATA);
+        if(segment.read(tmp, offset) < OF_DATA) {
+            return null;
         }
-        int size=Parser.getInt(tmp.array());
-        //filesize小代表是数据库崩溃时没写完，这一条日志是BadTail
-        if(position + size + OF_DATA > fileSize) {
+        int size = Parser.getInt(Arrays.copyOfRange(tmp.array(), OF_SIZE, OF_CHECKSUM));
+        if(size <= 0 || offset + OF_DATA + size > SEGMENT_SIZE) {
             return null;
         }
         //读取一条日志
         ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
-        try {
-            fc.position(position);
-            fc.read(buf);
-        } catch (Exception e) {
-            Error.error(e);
+        if(segment.read(buf, offset) < buf.capacity()) {
+            return null;
         }
         byte[] log = buf.array();
-        // 计算校验和
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        // 读取校验和
+        int checkSum1 = calChecksum(log);
         int checkSum2 = Parser.getInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
         if (checkSum1 != checkSum2) {
             return null;
         }
-        position += log.length;
         return log;
     }
 
     /*
-     * 计算校验和
-     * @param xCheck 上一次的校验和
+     * 计算日志的校验和，覆盖Size和Data
      */
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    private static int calChecksum(byte[] log) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        crc.update(log, OF_SIZE, OF_CHECKSUM - OF_SIZE);
+        crc.update(log, OF_DATA, log.length - OF_DATA);
+        return (int)crc.getValue();
+    }
+
+    /*
+     * 一条长为len的日志从pos开始写的位置，当前段放不下时从下一个段的第一条日志处开始
+     */
+    private static long place(long pos, int len) {
+        if(pos % SEGMENT_SIZE + len > SEGMENT_SIZE) {
+            return (pos / SEGMENT_SIZE + 1) * SEGMENT_SIZE + LogSegment.HEADER_SIZE;
         }
-        return xCheck;
+        return pos;
     }
 
     /*
-     * 写入一条日志,先将数据包装为日志格式，再写入文件，再更新文件的校验和，最后强制写入磁盘
+     * 写入一条日志，校验和在锁外计算，持锁时把日志直接写入环形缓冲区，不等待落盘
+     * 缓冲区放不下时唤醒刷盘线程，等待缓冲区中的日志写入文件
+     * @return 日志的LSN
      */
     @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    public long log(byte[] data) {
+        int len = OF_DATA + data.length;
+        if(len > RING_SIZE) {
+            Error.error(ErrorItem.InvalidLogOpException);
+        }
+        CRC32C crc = CRC.get();
+        crc.reset();
+        for(int i = 24; i >= 0; i -= 8) {
+            crc.update(data.length >>> i);
+        }
+        crc.update(data, 0, data.length);
+        int checksum = (int)crc.getValue();
+
         lock.lock();
         try {
-            //写入日志
-            fc.write(buf, position);
-            //更新校验和
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)), 0);
-            //写入磁盘
-            fc.force(false);
-        }catch (Exception e) {
-            Error.error(e);
-        }finally {
+            while(ringTail - ringHead + len > RING_SIZE) {
+                if(requestedLSN < end) {
+                    requestedLSN = end;
+                    flushRequested.signal();
+                }
+                flushed.awaitUninterruptibly();
+            }
+            putInt(ringTail + OF_SIZE, data.length);
+            putInt(ringTail + OF_CHECKSUM, checksum);
+            putBytes(ringTail + OF_DATA, data);
+            ringTail += len;
+            end = place(end, len) + len;
+            // 缓冲区积压过多时提前刷盘
+            if(ringTail - ringHead >= FLUSH_THRESHOLD && requestedLSN < end) {
+                requestedLSN = end;
+                flushRequested.signal();
+            }
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 以下按缓冲区中的逻辑位置读写，越过缓冲区末尾的部分回绕到开头
+    private void putInt(long pos, int x) {
+        int idx = (int)(pos % RING_SIZE);
+        if(idx + 4 <= RING_SIZE) {
+            ring.putInt(idx, x);
+            return;
+        }
+        for(int i = 0; i < 4; i ++) {
+            ring.put((idx + i) % RING_SIZE, (byte)(x >>> (24 - 8 * i)));
+        }
+    }
+
+    private int getInt(long pos) {
+        int idx = (int)(pos % RING_SIZE);
+        if(idx + 4 <= RING_SIZE) {
+            return ring.getInt(idx);
+        }
+        int x = 0;
+        for(int i = 0; i < 4; i ++) {
+            x = (x << 8) | (ring.get((idx + i) % RING_SIZE) & 0xff);
+        }
+        return x;
+    }
+
+    private void putBytes(long pos, byte[] src) {
+        int idx = (int)(pos % RING_SIZE);
+        int first = Math.min(src.length, RING_SIZE - idx);
+        ring.put(idx, src, 0, first);
+        if(first < src.length) {
+            ring.put(0, src, first, src.length - first);
+        }
+    }
+
+    /*
+     * 等待LSN不超过lsn的日志落盘，正在进行的一次force结束后，积累的请求由下一次force一起完成
+     */
+    @Override
+    public void flush(long lsn) {
+        if(lsn <= flushedLSN) {
+            return;
+        }
+        lock.lock();
+        try {
+            lsn = Math.min(lsn, end);
+            if(requestedLSN < lsn) {
+                requestedLSN = lsn;
+                flushRequested.signal();
+            }
+            while(flushedLSN < lsn) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
             lock.unlock();
         }
     }
 
     /*
-     * 把数据包装为日志标准格式[Size][Checksum][Data]，加上校验和
+     * 刷盘线程：取走缓冲区中的全部日志，在锁外写入段文件，force一次后释放缓冲区并唤醒等待者
+     * 一批日志跨段时，先force旧段再创建新段，保证只有最后一个段可能有坏尾
+     * 关闭时把剩余的日志全部落盘后退出
      */
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    private void flushLoop() {
+        while(true) {
+            long head, tail, batchStart, batchEnd;
+            lock.lock();
+            try {
+                while(running && requestedLSN <= flushedLSN) {
+                    flushRequested.awaitUninterruptibly();
+                }
+                if(ringHead == ringTail) {
+                    if(!running) {
+                        return;
+                    }
+                    continue;
+                }
+                head = ringHead;
+                tail = ringTail;
+                batchStart = flushedLSN;
+                batchEnd = end;
+            } finally {
+                lock.unlock();
+            }
+
+            // 缓冲区中[head, tail)的日志不会被改写，按段分成连续的几段写入
+            long runHead = head, runStart = batchStart, pos = batchStart;
+            for(long r = head; r < tail; ) {
+                int len = OF_DATA + getInt(r + OF_SIZE);
+                long start = place(pos, len);
+                if(start / SEGMENT_SIZE != writeSegment.segno) {
+                    writeRun(runHead, r, runStart);
+                    writeSegment.force();
+                    writeSegment.close();
+                    writeSegment = LogSegment.create(path, start / SEGMENT_SIZE, SEGMENT_SIZE);
+                    runHead = r;
+                    runStart = start;
+                }
+                pos = start + len;
+                r += len;
+            }
+            writeRun(runHead, tail, runStart);
+            writeSegment.force();
 
+            lock.lock();
+            try {
+                ringHead = tail;
+                flushedLSN = batchEnd;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 把缓冲区中[from, to)的日志聚集写入当前段中start处，缓冲区回绕时分两段
+    private void writeRun(long from, long to, long start) {
+        if(from == to) {
+            return;
+        }
+        int idx = (int)(from % RING_SIZE);
+        int len = (int)(to - from);
+        int first = Math.min(len, RING_SIZE - idx);
+        views[0].clear().position(idx).limit(idx + first);
+        views[1].clear().limit(len - first);
+        writeSegment.write(views, first < len ? 2 : 1, start % SEGMENT_SIZE);
     }
 
+    @Override
+    public long lastLSN() {
+        return position;
+    }
+
+    @Override
+    public long endLSN() {
+        lock.lock();
+        try {
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * 把最后一个段截断到x处，只在打开日志时调用
+     */
     @Override
     public void truncate(long x) throws Exception {
         lock.lock();
         try {
-            fc.truncate(x);
+            if(x / SEGMENT_SIZE != writeSegment.segno) {
+                Error.error(ErrorItem.InvalidLogOpException);
+            }
+            writeSegment.truncate(x % SEGMENT_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * 检查点之后删除不再需要的段，lsn所在的段和之后的段保留
+     * lsn不超过已经落盘的日志，正在写入的段不会被删除
+     */
+    @Override
+    public void removeBefore(long lsn) {
+        lock.lock();
+        try {
+            long bound = (Math.min(lsn, flushedLSN) - 1) / SEGMENT_SIZE;
+            for(long segno : LogSegment.list(path)) {
+                if(segno >= bound) {
+                    break;
+                }
+                if(readSegment != null && readSegment.segno == segno) {
+                    readSegment.close();
+                    readSegment = null;
+                }
+                LogSegment reader = readers.remove(segno);
+                if(reader != null) {
+                    reader.close();
+                }
+                LogSegment.fileOf(path, segno).delete();
+            }
+            firstSegno = Math.max(firstSegno, bound);
         } finally {
             lock.unlock();
         }
@@ -211,18 +477,55 @@ public class LoggerImpl implements Logger{
         }
     }
 
+    @Override
+    public long lastStart() {
+        return lastStart;
+    }
+
+    /*
+     * 恢复时重做和撤销的线程按位置重新读取日志，分析阶段不需要在内存中保存日志的内容
+     * 段的读取都带有位置，多个线程共用打开的段，不需要加锁
+     */
+    @Override
+    public byte[] read(long start) {
+        LogSegment segment = readers.computeIfAbsent(start / SEGMENT_SIZE, segno -> LogSegment.open(path, segno, SEGMENT_SIZE));
+        byte[] log = segment == null ? null : readLog(segment, start % SEGMENT_SIZE);
+        if(log == null) {
+            Error.error(ErrorItem.BadLogFileException);
+        }
+        //只取Data部分
+        return Arrays.copyOfRange(log, OF_DATA, log.length);
+    }
+
     @Override
     public void rewind() {
-        position = 4;
+        position = firstSegno * SEGMENT_SIZE + LogSegment.HEADER_SIZE;
     }
 
+    /*
+     * 关闭前等待缓冲区中的日志全部落盘
+     */
     @Override
     public void close() {
+        lock.lock();
         try {
-            fc.close();
-            file.close();
-        } catch(IOException e) {
-            Error.error(e);
+            running = false;
+            requestedLSN = end;
+            flushRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSegment.close();
+        if(readSegment != null) {
+            readSegment.close();
+        }
+        for(LogSegment reader : readers.values()) {
+            reader.close();
         }
     }
 }
@@ -1,11 +1,21 @@
 package com.lly.backend.DM.page;
 
+import java.nio.ByteBuffer;
+
 public interface Page {
+    // 独占锁，页面写回磁盘期间持有，保证写回的是一致的页面内容
     void lock();
     void unlock();
+    boolean tryLock();
+    // 共享锁，修改页面内容期间持有，不同的数据项可以并发修改同一个页面
+    void updateLock();
+    void updateUnlock();
     void release();
     void setDirty(boolean dirty);
     boolean isDirty();
     int getPageNumber();
-    byte[] getData();
+    // 页面内容所在的页框，可能在堆外，读写页面内容只使用绝对位置，不依赖position和limit
+    ByteBuffer getBuffer();
+    // 页面所在数据库文件的格式版本，决定普通页的布局
+    int getFormatVersion();
 }
@@ -4,23 +4,28 @@ package com.lly.backend.DM.page;
 
 import com.lly.backend.DM.pageCache.PageCache;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class PageImpl implements Page{
     private int pageNumber;
-    private byte[] data;
-    private boolean isdirty;    //在缓存驱逐的时候，脏页面需要被写回磁盘
-    private Lock lock;
+    private ByteBuffer frame;    //页框，由页面缓存的页框池分配和回收
+    private volatile boolean isdirty;    //在缓存驱逐的时候，脏页面需要被写回磁盘
+    private Lock lock;    //写回页面时持有
+    private Lock updateLock;    //修改页面时持有
 
     private PageCache pageCache;
 
 
-    public PageImpl(int pageNumber, byte[] data, PageCache pageCache) {
+    public PageImpl(int pageNumber, ByteBuffer frame, PageCache pageCache) {
         this.pageNumber = pageNumber;
-        this.data = data;
+        this.frame = frame;
         this.pageCache = pageCache;
-        lock = new ReentrantLock();
+        ReadWriteLock rwLock = new ReentrantReadWriteLock();
+        lock = rwLock.writeLock();
+        updateLock = rwLock.readLock();
     }
 
 
@@ -35,14 +40,36 @@ public class PageImpl implements Page{
 
     }
 
+    @Override
+    public boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    @Override
+    public void updateLock() {
+        updateLock.lock();
+    }
+
+    @Override
+    public void updateUnlock() {
+        updateLock.unlock();
+    }
+
     @Override
     public void release() {
         pageCache.release(this);
     }
 
+    /*
+     * 页面由干净变脏时登记到页面缓存的脏页表，由后台写线程写回
+     */
     @Override
     public void setDirty(boolean dirty) {
+        boolean wasDirty = this.isdirty;
         this.isdirty = dirty;
+        if(dirty && !wasDirty && pageCache != null) {
+            pageCache.markDirty(this);
+        }
     }
 
     @Override
@@ -56,7 +83,12 @@ public class PageImpl implements Page{
     }
 
     @Override
-    public byte[] getData() {
-        return data;
+    public ByteBuffer getBuffer() {
+        return frame;
+    }
+
+    @Override
+    public int getFormatVersion() {
+        return pageCache.getFormatVersion();
     }
 }
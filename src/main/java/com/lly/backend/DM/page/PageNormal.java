@@ -1,86 +1,165 @@
 package com.lly.backend.DM.page;
 
 
-import com.lly.backend.DM.pageCache.PageCache;
 import com.lly.common.utils.Parser;
 
-import java.util.Arrays;
-
 /**
  * PageNormal管理普通页
  * 普通页结构
- * [FreeSpaceOffset] [Data]
+ * [PageLSN] [FreeSpaceOffset] [Data]
+ * PageLSN: 8字节 最后一条作用在该页上的日志的LSN，恢复时跳过LSN不超过它的日志
  * FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * 格式版本0的数据库中普通页没有PageLSN：[FreeSpaceOffset] [Data]
+ * 数据项的偏移记录在UID中，旧页面不能移动数据补上PageLSN，按旧布局读写，PageLSN视为0
  */
 public class PageNormal {
-    private static final short OFFSET_FREE = 0; // 空闲位置开始的偏移
-    private static final short OFFSET_DATA = 2; // 数据开始的偏移
-    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OFFSET_DATA;// 最大的空闲空间
+    private static final short OFFSET_LSN = 0; // PageLSN的偏移
+    private static final short OFFSET_FREE = 8; // 空闲位置开始的偏移
+    private static final short OFFSET_DATA = 10; // 数据开始的偏移
+    private static final short V0_OFFSET_FREE = 0; // 格式版本0的空闲位置开始的偏移
+    private static final short V0_OFFSET_DATA = 2; // 格式版本0的数据开始的偏移
+
+    private static short offsetFree(int version) {
+        return version == 0 ? V0_OFFSET_FREE : OFFSET_FREE;
+    }
+
+    private static short offsetData(int version) {
+        return version == 0 ? V0_OFFSET_DATA : OFFSET_DATA;
+    }
 
     /*
      * 初始化一个普通页
+     * @param pageSize 数据库的页大小
+     * @param version 数据库文件的格式版本
      * @return 一个普通页的byte数组
      */
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
-        setFSO(raw, OFFSET_DATA);
+    public static byte[] initRaw(int pageSize, int version) {
+        byte[] raw = new byte[pageSize];
+        setFSO(raw, version, offsetData(version));
         return raw;
     }
 
+    public static byte[] initRaw(int pageSize) {
+        return initRaw(pageSize, PageOne.FORMAT_VERSION);
+    }
+
+    /*
+     * 页内可用空间的结束位置，FSO是2字节有符号数，32KB的页最后一个字节不使用
+     */
+    private static int limit(int pageSize) {
+        return Math.min(pageSize, Short.MAX_VALUE);
+    }
+
+    // 一个空页的空闲空间大小
+    public static int maxFreeSpace(int pageSize, int version) {
+        return limit(pageSize) - offsetData(version);
+    }
+
     /*
      * 设置FreeSpaceOffset
      */
-    private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OFFSET_FREE, OFFSET_DATA);
+    private static void setFSO(byte[] raw, int version, short ofData) {
+        System.arraycopy(Parser.short2Byte(ofData), 0, raw, offsetFree(version), 2);
     }
 
-    // 获取pg的FSO
-    public static short getFSO(Page pg) {
-        return getFSO(pg.getData());
+    private static void setFSO(Page pg, short ofData) {
+        pg.getBuffer().putShort(offsetFree(pg.getFormatVersion()), ofData);
     }
 
-    private static short getFSO(byte[] raw) {
-        return Parser.offsetByte2Short(Arrays.copyOfRange(raw, 0, 2));
+    // 获取pg的FSO
+    // 文件按区间预先扩展，崩溃时还没有写入文件的新页面全为0，视为空页
+    public static short getFSO(Page pg) {
+        int version = pg.getFormatVersion();
+        short ofFree = offsetFree(version);
+        short fso = pg.getBuffer().getShort(ofFree);
+        return fso < offsetData(version) ? offsetData(version) : fso;
     }
 
     // 获取页面的空闲空间大小
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int)getFSO(pg.getData());
+        return limit(pg.getBuffer().capacity()) - (int)getFSO(pg);
     }
 
 
+    // 获取pg的PageLSN，格式版本0的页面没有PageLSN，总是0
+    public static long getPageLSN(Page pg) {
+        if(pg.getFormatVersion() == 0) {
+            return 0;
+        }
+        return pg.getBuffer().getLong(OFFSET_LSN);
+    }
+
+    /*
+     * 记录一条作用在pg上的日志的LSN，调用者持有页面的修改锁
+     * 持有修改锁的线程可能有多个，日志写入的顺序和修改页面的顺序不一定相同，只保留较大的LSN
+     */
+    public static void setPageLSN(Page pg, long lsn) {
+        if(pg.getFormatVersion() == 0) {
+            return;
+        }
+        synchronized (pg) {
+            if(getPageLSN(pg) < lsn) {
+                pg.getBuffer().putLong(OFFSET_LSN, lsn);
+            }
+        }
+    }
+
     /*
      * 将raw插入pg中，返回插入位置
+     * @param lsn 插入日志的LSN
      */
-    public static short insert(Page pg, byte[] raw) {
-        pg.setDirty(true);
-        short offset = getFSO(pg.getData());
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-        setFSO(pg.getData(), (short)(offset + raw.length));
-        return offset;
+    public static short insert(Page pg, byte[] raw, long lsn) {
+        pg.updateLock();
+        try {
+            pg.setDirty(true);
+            short offset = getFSO(pg);
+            pg.getBuffer().put(offset, raw);
+            setFSO(pg, (short)(offset + raw.length));
+            setPageLSN(pg, lsn);
+            return offset;
+        } finally {
+            pg.updateUnlock();
+        }
     }
 
     /*
      * 将raw插入pg中的offset位置，并将pg的offset设置为较大的offset
      * 用于在数据库崩溃后重新打开时，恢复例程直接插入数据以及修改数据使用
+     * @param lsn 重做的日志的LSN，撤销时为0，不修改PageLSN
      */
-    public static void recoverInsert(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-
-        short rawFSO = getFSO(pg.getData());
-        if(rawFSO < offset + raw.length) {
-            setFSO(pg.getData(), (short)(offset+raw.length));
+    public static void recoverInsert(Page pg, byte[] raw, short offset, long lsn) {
+        pg.updateLock();
+        try {
+            pg.setDirty(true);
+            pg.getBuffer().put(offset, raw);
+
+            // 并行撤销时多个事务可能同时恢复同一页上的插入
+            synchronized (pg) {
+                short rawFSO = getFSO(pg);
+                if(rawFSO < offset + raw.length) {
+                    setFSO(pg, (short)(offset+raw.length));
+                }
+            }
+            setPageLSN(pg, lsn);
+        } finally {
+            pg.updateUnlock();
         }
     }
 
     /*
      * 将raw插入pg中的offset位置，不更新update
      * 用于在数据库崩溃后重新打开时，恢复例程直接修改数据使用
+     * @param lsn 重做的日志的LSN，撤销时为0，不修改PageLSN
      */
-    public static void recoverUpdate(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+    public static void recoverUpdate(Page pg, byte[] raw, short offset, long lsn) {
+        pg.updateLock();
+        try {
+            pg.setDirty(true);
+            pg.getBuffer().put(offset, raw);
+            setPageLSN(pg, lsn);
+        } finally {
+            pg.updateUnlock();
+        }
     }
 
 
@@ -2,8 +2,10 @@ package com.lly.backend.DM.page;
 
 
 import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.common.utils.Parser;
 import com.lly.common.utils.RandomUtils;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -11,24 +13,55 @@ import java.util.Arrays;
  * 主要用于ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 主要用于判断上一次数据库是否正常关闭。如果是异常关闭，就需要执行数据的恢复流程。
+ * 0~3字节记录数据库的页大小，4~7字节记录文件格式的版本，打开数据库时在创建页面缓存之前读取
+ * 早期版本创建的数据库这两个字段都为0，页大小为8KB，格式版本为0
  */
 public class PageOne {
+    // 文件格式的版本，普通页带有PageLSN的格式为1
+    public static final int FORMAT_VERSION = 1;
+    private static final int OFFSET_PAGE_SIZE = 0;// 页大小的起始位置
+    private static final int OFFSET_VERSION = OFFSET_PAGE_SIZE+4;// 格式版本的起始位置
+    public static final int HEADER_SIZE = OFFSET_VERSION+4;// 打开数据库时需要预先读取的头部长度
     private static final int LEN_VC = 8;// ValidCheck校验码的长度
     private static final int OFFSET_VC = 100;// ValidCheck校验码的起始位置
 
     /**
      * 初始化第一页
+     * @param pageSize 数据库的页大小
      * @return 第一页的byte数组
      */
-    public static byte[] InitRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    public static byte[] InitRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
+        System.arraycopy(Parser.int2Byte(pageSize), 0, raw, OFFSET_PAGE_SIZE, 4);
+        System.arraycopy(Parser.int2Byte(FORMAT_VERSION), 0, raw, OFFSET_VERSION, 4);
         setVcOpen(raw);
         return raw;
     }
 
+    /**
+     * 从第一页的头部解析页大小
+     * @param header 第一页开头的至少HEADER_SIZE个字节
+     */
+    public static int getPageSize(byte[] header) {
+        int pageSize = Parser.getInt(Arrays.copyOfRange(header, OFFSET_PAGE_SIZE, OFFSET_PAGE_SIZE+4));
+        return pageSize == 0 ? PageCache.DEFAULT_PAGE_SIZE : pageSize;
+    }
+
+    /**
+     * 从第一页的头部解析文件格式的版本，早期版本创建的数据库为0
+     */
+    public static int getFormatVersion(byte[] header) {
+        return Parser.getInt(Arrays.copyOfRange(header, OFFSET_VERSION, OFFSET_VERSION+4));
+    }
+
     public static void setVcOpen(Page pg) {
-        pg.setDirty(true);
-        setVcOpen(pg.getData());
+        pg.updateLock();
+        try {
+            pg.setDirty(true);
+            pg.getBuffer().put(OFFSET_VC, RandomUtils.randomBytes(LEN_VC));
+        } finally {
+            pg.updateUnlock();
+        }
     }
 
     /**
@@ -40,16 +73,15 @@ public class PageOne {
     }
 
     public static void setVcClose(Page pg) {
-        pg.setDirty(true);
-        setVcClose(pg.getData());
-    }
-
-    /**
-     * 将ValidCheck校验码拷贝到第一页的108 ~ 115字节
-     * @param raw 第一页的byte数组
-     */
-    private static void setVcClose(byte[] raw) {
-        System.arraycopy(raw, OFFSET_VC, raw, OFFSET_VC+LEN_VC, LEN_VC);
+        pg.updateLock();
+        try {
+            pg.setDirty(true);
+            // 将ValidCheck校验码拷贝到第一页的108 ~ 115字节
+            ByteBuffer buf = pg.getBuffer();
+            buf.put(OFFSET_VC+LEN_VC, buf, OFFSET_VC, LEN_VC);
+        } finally {
+            pg.updateUnlock();
+        }
     }
 
     /**
@@ -59,11 +91,7 @@ public class PageOne {
      */
 
     public static boolean checkVc(Page pg) {
-        return checkVc(pg.getData());
-    }
-
-
-    private static boolean checkVc(byte[] raw) {
-        return Arrays.equals(Arrays.copyOfRange(raw, OFFSET_VC, OFFSET_VC+LEN_VC), Arrays.copyOfRange(raw, OFFSET_VC+LEN_VC,OFFSET_VC+2*LEN_VC));
+        ByteBuffer buf = pg.getBuffer();
+        return buf.slice(OFFSET_VC, LEN_VC).equals(buf.slice(OFFSET_VC+LEN_VC, LEN_VC));
     }
 }
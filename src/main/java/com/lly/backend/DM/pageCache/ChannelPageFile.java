@@ -0,0 +1,103 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.common.utils.Error;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过FileChannel读写数据库文件
+ * 使用带偏移的read/write，不修改通道的position，多个线程可以同时读写不同的页面而无需加锁
+ */
+class ChannelPageFile implements PageFile {
+
+    private RandomAccessFile file;
+    private FileChannel fileChannel;
+
+    ChannelPageFile(RandomAccessFile file, FileChannel fileChannel) {
+        this.file = file;
+        this.fileChannel = fileChannel;
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer dst) {
+        int start = dst.position();
+        try {
+            // 一次read可能读不满，读到文件末尾为止
+            while(dst.hasRemaining()) {
+                if(fileChannel.read(dst, offset + dst.position() - start) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        // 页框是复用的，文件末尾之后的部分要清零
+        while(dst.hasRemaining()) {
+            dst.put((byte)0);
+        }
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer src) {
+        int start = src.position();
+        try {
+            while(src.hasRemaining()) {
+                fileChannel.write(src, offset + src.position() - start);
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public void sync() {
+        try {
+            fileChannel.force(false);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        try {
+            file.setLength(size);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public void extend(long size) {
+        try {
+            if(file.length() < size) {
+                file.setLength(size);
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return file.length();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+            fileChannel.close();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+}
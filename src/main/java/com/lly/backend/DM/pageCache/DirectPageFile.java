@@ -0,0 +1,139 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.common.utils.Error;
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 绕过操作系统页缓存，以O_DIRECT方式读写数据库文件
+ * 页面只缓存在PageCacheImpl的页框中，内存占用由数据库的memory参数决定，不会在操作系统中再缓存一份
+ * 直接I/O要求缓冲区地址、文件偏移和长度都按块大小对齐，页框是堆内存，
+ * 读写时经过每个线程一个的对齐的直接缓冲区中转
+ */
+class DirectPageFile implements PageFile {
+
+    private RandomAccessFile file;
+    private FileChannel fileChannel;
+    private int blockSize;    // 对齐的单位
+    private ThreadLocal<ByteBuffer> buffers;    // 每个线程的对齐缓冲区
+
+    DirectPageFile(RandomAccessFile file, Path path, int pageSize) {
+        this.file = file;
+        try {
+            this.blockSize = (int)Files.getFileStore(path).getBlockSize();
+            this.fileChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        if(pageSize % blockSize != 0) {
+            Error.error(new IllegalArgumentException("Page size must be a multiple of the file system block size " + blockSize));
+        }
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(pageSize + blockSize).alignedSlice(blockSize));
+    }
+
+    /**
+     * 获取当前线程的对齐缓冲区，长度为length
+     */
+    private ByteBuffer buffer(int length) {
+        ByteBuffer buf = buffers.get();
+        if(buf.capacity() < length) {
+            buf = ByteBuffer.allocateDirect(length + blockSize).alignedSlice(blockSize);
+            buffers.set(buf);
+        }
+        buf.clear().limit(length);
+        return buf;
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer dst) {
+        ByteBuffer buf = buffer(dst.remaining());
+        try {
+            // 文件长度总是页大小的整数倍，读到文件末尾为止
+            while(buf.hasRemaining()) {
+                if(fileChannel.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        buf.flip();
+        dst.put(buf);
+        // 页框是复用的，文件末尾之后的部分要清零
+        while(dst.hasRemaining()) {
+            dst.put((byte)0);
+        }
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer src) {
+        ByteBuffer buf = buffer(src.remaining());
+        buf.put(src).flip();
+        try {
+            while(buf.hasRemaining()) {
+                fileChannel.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    /**
+     * 数据已经绕过了页缓存，force只需要刷新文件的元数据和磁盘的写缓存
+     */
+    @Override
+    public void sync() {
+        try {
+            fileChannel.force(false);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        try {
+            file.setLength(size);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public void extend(long size) {
+        try {
+            if(file.length() < size) {
+                file.setLength(size);
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return file.length();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            fileChannel.close();
+            file.close();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+}
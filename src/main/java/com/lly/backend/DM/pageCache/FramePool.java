@@ -0,0 +1,58 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.common.ErrorItem;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 页框池，页面被驱逐后页框回收到池中，供下一次未命中复用
+ * 稳态下页面的换入换出不再分配新的页框
+ * 页框总数不超过capacity，即缓存容量，按需分配，分配满后只能复用回收的页框
+ * 页框在堆外分配，不占用堆也不被GC扫描和移动，读写文件时不需要经过临时的堆外缓冲区
+ * 页面和数据项只按绝对位置读写页框
+ */
+class FramePool {
+
+    private LinkedBlockingQueue<ByteBuffer> free;
+    private int frameSize;
+    private int capacity;    // 页框总数的上限
+    private AtomicInteger allocated;    // 已经分配的页框数
+    private long timeout;    // 页框全部在使用时等待回收的最长时间，毫秒
+
+    FramePool(int frameSize, int capacity, long timeoutMillis) {
+        this.free = new LinkedBlockingQueue<>();
+        this.frameSize = frameSize;
+        this.capacity = capacity;
+        this.allocated = new AtomicInteger(0);
+        this.timeout = timeoutMillis;
+    }
+
+    /**
+     * 取出一个页框，池为空且还没有分配满时分配新的页框
+     * 缓存准入保证在缓存中的页面不超过容量，分配满时等待正在驱逐的页面回收页框
+     */
+    ByteBuffer acquire() throws Exception {
+        ByteBuffer frame = free.poll();
+        if(frame == null && allocated.getAndIncrement() < capacity) {
+            frame = ByteBuffer.allocateDirect(frameSize);
+        } else if(frame == null) {
+            allocated.decrementAndGet();
+            frame = free.poll(timeout, TimeUnit.MILLISECONDS);
+            if(frame == null) {
+                throw ErrorItem.CacheFullException;
+            }
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * 回收页框，调用者需保证页框不再被使用
+     */
+    void recycle(ByteBuffer frame) {
+        free.offer(frame);
+    }
+}
@@ -0,0 +1,145 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.common.utils.Error;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 通过内存映射读写数据库文件
+ * 文件按REGION_SIZE分段映射，读写页面只是内存拷贝，不产生系统调用
+ * 映射会把文件扩展到段的边界，逻辑长度单独记录，关闭时再把文件截断到逻辑长度
+ */
+class MappedPageFile implements PageFile {
+
+    // 每段映射64MB，是页大小的整数倍，页面不会跨段
+    static final long REGION_SIZE = 1L << 26;
+
+    private RandomAccessFile file;
+    private FileChannel fileChannel;
+    private volatile MappedByteBuffer[] regions;
+    private Set<Integer> dirtyRegions;    // 自上次sync以来写过的段
+    private volatile long length;    // 文件的逻辑长度
+    private Lock mapLock;    // 保护映射的扩展
+
+    MappedPageFile(RandomAccessFile file, FileChannel fileChannel) {
+        this.file = file;
+        this.fileChannel = fileChannel;
+        this.regions = new MappedByteBuffer[0];
+        this.dirtyRegions = ConcurrentHashMap.newKeySet();
+        this.mapLock = new ReentrantLock();
+        try {
+            this.length = file.length();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+
+    /**
+     * 获取offset所在的段，段还没有映射时扩展映射
+     */
+    private MappedByteBuffer region(long offset) {
+        int index = (int)(offset / REGION_SIZE);
+        MappedByteBuffer[] rs = regions;
+        if(index < rs.length) {
+            return rs[index];
+        }
+        mapLock.lock();
+        try {
+            rs = regions;
+            if(index >= rs.length) {
+                rs = Arrays.copyOf(rs, index + 1);
+                for(int i = regions.length; i <= index; i ++) {
+                    rs[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, i * REGION_SIZE, REGION_SIZE);
+                }
+                regions = rs;
+            }
+            return rs[index];
+        } catch (IOException e) {
+            Error.error(e);
+            return null;
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer dst) {
+        int length = dst.remaining();
+        dst.put(dst.position(), region(offset), (int)(offset % REGION_SIZE), length);
+        dst.position(dst.position() + length);
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer src) {
+        int size = src.remaining();
+        region(offset).put((int)(offset % REGION_SIZE), src, src.position(), size);
+        src.position(src.position() + size);
+        dirtyRegions.add((int)(offset / REGION_SIZE));
+        mapLock.lock();
+        try {
+            length = Math.max(length, offset + size);
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        MappedByteBuffer[] rs = regions;
+        for(Integer index : dirtyRegions) {
+            dirtyRegions.remove(index);
+            rs[index].force();
+        }
+    }
+
+    /**
+     * 只修改逻辑长度，映射仍然有效，截断推迟到关闭时
+     * 对已映射的区域截断文件后再访问会导致SIGBUS
+     */
+    @Override
+    public void truncate(long size) {
+        mapLock.lock();
+        try {
+            length = size;
+        } finally {
+            mapLock.unlock();
+        }
+    }
+
+    /**
+     * 映射size所在的段，映射时文件已经扩展到段的边界，逻辑长度不变
+     */
+    @Override
+    public void extend(long size) {
+        if(size > 0) {
+            region(size - 1);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() {
+        sync();
+        regions = new MappedByteBuffer[0];
+        try {
+            file.setLength(length);
+            file.close();
+            fileChannel.close();
+        } catch (IOException e) {
+            Error.error(e);
+        }
+    }
+}
@@ -1,27 +1,54 @@
 package com.lly.backend.DM.pageCache;
 
+import com.lly.backend.DM.logger.Logger;
 import com.lly.backend.DM.page.Page;
+import com.lly.backend.DM.page.PageOne;
 import com.lly.common.ErrorItem;
 import com.lly.common.utils.Error;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
 
 public interface PageCache {
-    // 8KB
-    public static final int PAGE_SIZE = 1 << 13;
+    // 页大小在创建数据库时确定并记录在第一页中，默认8KB
+    public static final int DEFAULT_PAGE_SIZE = 1 << 13;
+    // 页内偏移以2字节有符号数存储在UID和日志中，页大小不能超过32KB
+    public static final int MIN_PAGE_SIZE = 1 << 12;
+    public static final int MAX_PAGE_SIZE = 1 << 15;
 
     int newPage(byte[] initData);
     Page getPage(int pgno) throws Exception;
+    // 异步获取页面，同一个页面的并发读取共享一次I/O，返回的页面同样需要release
+    CompletableFuture<Page> getPageAsync(int pgno);
     void close();
     void release(Page page);
     void truncateByPgno(int maxPgno);
     int getPageNumber();
+    int getPageSize();
+    // 数据库文件的格式版本，为0时普通页使用没有PageLSN的旧布局
+    int getFormatVersion();
     void flushPage(Page pg);
+    // 写回所有脏页并force，用于检查点
+    void flushAll();
+    // 页面由干净变脏时由Page调用，登记到脏页表
+    void markDirty(Page pg);
+    // 提示即将顺序访问从pgno开始的count个页面，在后台预读，count不超过预读窗口
+    void prefetch(int pgno, int count);
+    // 设置日志，写回普通页之前先把日志刷到页面的LSN
+    void setLogger(Logger lg);
+    // 当前线程开始全表扫描，扫描读入的页面只占用一个小的环形缓冲区
+    void beginScan();
+    void endScan();
 
     public static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, new PageCacheConfig());
+    }
+
+    public static PageCacheImpl create(String path, long memory, PageCacheConfig config) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         try {
             if(!f.createNewFile()) {
@@ -33,6 +60,9 @@ public interface PageCache {
         if(!f.canRead() || !f.canWrite()) {
            Error.error(ErrorItem.FileCannotRWException);
         }
+        checkPageSize(config.pageSize);
+        //同名的旧数据库留下的预热文件
+        new File(path+PageCacheImpl.WARM_SUFFIX).delete();
         FileChannel fc = null;
         RandomAccessFile raf = null;
         try {
@@ -41,10 +71,14 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Error.error(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return new PageCacheImpl(openPageFile(f, raf, fc, config.pageSize, config), new File(path+PageCacheImpl.WARM_SUFFIX), config.pageSize, (int)(memory/config.pageSize), config);
     }
 
     public static PageCacheImpl open(String path, long memory) {
+        return open(path, memory, new PageCacheConfig());
+    }
+
+    public static PageCacheImpl open(String path, long memory, PageCacheConfig config) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         if(!f.exists()) {
             Error.error(ErrorItem.FileNotExistsException);
@@ -61,6 +95,47 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Error.error(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        byte[] header = readHeader(raf);
+        //格式版本0是早期版本创建的数据库，页面按旧布局读写
+        int version = PageOne.getFormatVersion(header);
+        if(version != 0 && version != PageOne.FORMAT_VERSION) {
+            Error.error(ErrorItem.BadDBFormatException);
+        }
+        int pageSize = PageOne.getPageSize(header);
+        checkPageSize(pageSize);
+        return new PageCacheImpl(openPageFile(f, raf, fc, pageSize, config), new File(path+PageCacheImpl.WARM_SUFFIX), pageSize, version, (int)(memory/pageSize), config);
+    }
+
+    /**
+     * 在创建页面缓存之前，读出第一页的头部，其中记录了页大小和格式版本
+     */
+    private static byte[] readHeader(RandomAccessFile raf) {
+        byte[] header = new byte[PageOne.HEADER_SIZE];
+        try {
+            raf.seek(0);
+            raf.readFully(header);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        return header;
+    }
+
+    /**
+     * 页大小必须是4KB到32KB之间的2的幂
+     */
+    private static void checkPageSize(int pageSize) {
+        if(pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            Error.error(ErrorItem.InvalidPageSizeException);
+        }
+    }
+
+    private static PageFile openPageFile(File f, RandomAccessFile raf, FileChannel fc, int pageSize, PageCacheConfig config) {
+        if(config.direct) {
+            return new DirectPageFile(raf, f.toPath(), pageSize);
+        }
+        if(config.mmap) {
+            return new MappedPageFile(raf, fc);
+        }
+        return new ChannelPageFile(raf, fc);
     }
 }
@@ -0,0 +1,37 @@
+package com.lly.backend.DM.pageCache;
+
+/**
+ * 页面缓存的启动配置
+ */
+public class PageCacheConfig {
+    // 使用内存映射的方式读写数据库文件
+    public boolean mmap = false;
+    // 以O_DIRECT方式读写数据库文件，不经过操作系统的页缓存，优先于mmap
+    public boolean direct = false;
+    // 后台写线程的唤醒间隔，毫秒
+    public long writerInterval = 1000;
+    // 后台写线程每批写回的最大页数，每批force一次
+    public int writerBatchSize = 64;
+    // 脏页数超过缓存容量的该百分比时立即唤醒后台写线程
+    public int dirtyHighWaterPercent = 50;
+    // 预读窗口的页数，为0时关闭预读
+    public int prefetchPages = 8;
+    // 预读线程数
+    public int prefetchThreads = 2;
+    // 所有页面都被引用时，获取新页面的最长等待时间，单位毫秒，为0时立即抛出CacheFullException
+    public long admissionTimeout = 5000;
+    // 数据库文件每次扩展的字节数，取值1MB到64MB
+    public long extentSize = 1 << 20;
+    // 页大小，只在创建数据库时使用，打开数据库时以文件中记录的为准
+    public int pageSize = PageCache.DEFAULT_PAGE_SIZE;
+    // 全表扫描的环形缓冲区页数，为0时扫描和普通访问一样使用整个缓存
+    public int scanRingPages = 32;
+    // 记录缓存中的页面，下次启动时预热
+    public boolean warmUp = true;
+    // 后台写线程保存预热文件的间隔，毫秒，为0时只在正常关闭时保存
+    public long warmSaveInterval = 60000;
+    // 异步读取页面的I/O线程数
+    public int ioThreads = 8;
+    // 定期做检查点的间隔，毫秒，为0时只在关闭时做检查点
+    public long checkpointInterval = 30000;
+}
@@ -1,122 +1,520 @@
 package com.lly.backend.DM.pageCache;
 
+import com.lly.backend.DM.logger.Logger;
 import com.lly.backend.DM.page.Page;
 import com.lly.backend.DM.page.PageImpl;
+import com.lly.backend.DM.page.PageNormal;
+import com.lly.backend.DM.page.PageOne;
 import com.lly.backend.common.AbstractCache;
+import com.lly.backend.common.LRUKReplacer;
 import com.lly.common.ErrorItem;
 import com.lly.common.utils.Error;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     private static final int MEM_MIN_LIM = 10;
+    // LRU-K 置换策略的 K 值
+    private static final int LRU_K = 2;
+    // 文件扩展区间大小的范围
+    private static final long MIN_EXTENT = 1L << 20;
+    private static final long MAX_EXTENT = 1L << 26;
     public static final String DB_SUFFIX = ".db";
+    public static final String WARM_SUFFIX = ".warm";
 
-    private RandomAccessFile file;
-    private FileChannel fileChannel;
-    private Lock fileLock;
+    private PageFile pageFile;
+    private Logger logger;    // 写回普通页之前保证日志先落盘
+    private int pageSize;
+    private FramePool framePool;
+
+    private ConcurrentHashMap<Integer, Page> dirtyPages;    // 脏页表
+    private AtomicBoolean unsynced;    // 是否有写入了文件但还没有force的页面
+    private int dirtyHighWater;    // 脏页数超过该值时唤醒后台写线程
+    private PageWriter writer;
+
+    private int prefetchWindow;    // 预读窗口
+    private ExecutorService prefetcher;    // 预读线程池
+    private ExecutorService ioPool;    // 异步读取页面的线程池
+    private Set<Integer> prefetching;    // 正在预读的页
+    private Set<Integer> prefetched;    // 预读进缓存、还没有被访问过的页
+    private AtomicInteger lastMiss;    // 上一次未命中的页号，用于识别顺序访问
+    private AtomicLong prefetchHits;    // 预读的页在驱逐前被访问的次数
+    private AtomicLong prefetchWasted;    // 预读的页直到被驱逐都没有被访问的次数
+    private volatile boolean closing;    // 正在关闭，不再发起预读，已提交的预读直接跳过
+
+    private int scanRingPages;    // 扫描环的页数
+    private ThreadLocal<ScanRing> scanRings;    // 正在扫描的线程的扫描环
+
+    private File warmFile;    // 预热文件，记录上次关闭或定期保存时缓存中的页面
+    private boolean warmUp;
+    private Set<Integer> warmPages;    // 启动时需要预热、还没有被读入的页面
 
     //在多线程环境下，无需额外的同步措施，即可保证操作的线程安全性
     private AtomicInteger pageNumbers;
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    private int formatVersion;    // 数据库文件的格式版本
+    private long extentSize;    // 文件每次扩展的字节数
+    private long allocated;    // 文件已分配的字节数，可能大于页面占用的长度
+    private Lock allocLock;    // 保护新建页面和文件扩展
+    private ConcurrentHashMap<Integer, byte[]> newPages;    // 新建后还没有写入文件的页面的初始内容
+
+    PageCacheImpl(PageFile pageFile, File warmFile, int pageSize, int maxResource, PageCacheConfig config) {
+        this(pageFile, warmFile, pageSize, PageOne.FORMAT_VERSION, maxResource, config);
+    }
+
+    PageCacheImpl(PageFile pageFile, File warmFile, int pageSize, int formatVersion, int maxResource, PageCacheConfig config) {
+        //引用计数归零的页面留在缓存中，由LRU-K在缓存满时选出牺牲者
+        super(maxResource, new LRUKReplacer(LRU_K), config.admissionTimeout);
         //缓存数最小限制
         if(maxResource<MEM_MIN_LIM){
             Error.error(ErrorItem.MemTooSmallException);
         }
-        long length = 0;
-        try {
-            length = file.length();
-        } catch (Exception e) {
-            Error.error(e);
+        this.pageFile = pageFile;
+        this.pageSize = pageSize;
+        this.formatVersion = formatVersion;
+        this.framePool = new FramePool(pageSize, maxResource, config.admissionTimeout);
+        this.pageNumbers=new AtomicInteger((int)(pageFile.length()/pageSize));
+        long extent = Math.min(MAX_EXTENT, Math.max(MIN_EXTENT, config.extentSize));
+        this.extentSize = extent / pageSize * pageSize;
+        this.allocated = pageFile.length();
+        this.allocLock = new ReentrantLock();
+        this.newPages = new ConcurrentHashMap<>();
+        this.dirtyPages = new ConcurrentHashMap<>();
+        this.unsynced = new AtomicBoolean(false);
+        this.dirtyHighWater = Math.max(1, (int)((long)maxResource * config.dirtyHighWaterPercent / 100));
+        this.writer = new PageWriter(this, config.writerInterval, config.writerBatchSize,
+                config.warmUp ? config.warmSaveInterval : 0);
+        this.writer.start();
+        this.prefetchWindow = config.prefetchPages;
+        this.prefetching = ConcurrentHashMap.newKeySet();
+        this.prefetched = ConcurrentHashMap.newKeySet();
+        this.lastMiss = new AtomicInteger(-1);
+        this.prefetchHits = new AtomicLong(0);
+        this.prefetchWasted = new AtomicLong(0);
+        this.scanRingPages = config.scanRingPages;
+        this.scanRings = new ThreadLocal<>();
+        this.warmFile = warmFile;
+        this.warmUp = config.warmUp;
+        this.warmPages = ConcurrentHashMap.newKeySet();
+        //扫描环也要占用页框，预热的页面不超过剩下的部分
+        loadWarmPages(Math.max(maxResource - scanRingPages, maxResource / 2));
+        if(prefetchWindow > 0) {
+            this.prefetcher = Executors.newFixedThreadPool(config.prefetchThreads, r -> {
+                Thread t = new Thread(r, "page-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
         }
-        this.file = file;
-        this.fileChannel = fileChannel;
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers=new AtomicInteger((int)length/PAGE_SIZE);
+        this.ioPool = Executors.newFixedThreadPool(config.ioThreads, r -> {
+            Thread t = new Thread(r, "page-io");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /*
      *根据pageNumber从数据库文件中读取页数据，并封装为Page对象返回
+     *新建后还没有写入文件的页面直接使用初始内容，作为脏页等待写回
      * @param key 页号
      */
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int)key;
-        long offset=pageOffset(pgno);
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
-        try {
-            fileChannel.position(offset);
-            fileChannel.read(buf);
-        } catch (Exception e) {
-            Error.error(e);
-        } finally {
-            fileLock.unlock();
+        ByteBuffer frame = framePool.acquire();
+        byte[] initData = newPages.get(pgno);
+        if(initData != null) {
+            frame.put(initData);
+            Page pg = new PageImpl(pgno, frame, this);
+            pg.setDirty(true);
+            return pg;
         }
-        return new PageImpl(pgno, buf.array(), this);
+        pageFile.read(pageOffset(pgno), frame);
+        return new PageImpl(pgno, frame, this);
     }
 
     private long pageOffset(int pgno) {
-        return (long) (pgno - 1) * PAGE_SIZE;
+        return (long) (pgno - 1) * pageSize;
     }
 
     /*
-     *释放缓存的Page对象
+     *驱逐缓存的Page对象，只有脏页需要写回，不等待force，由后台写线程统一force
+     *写回后页框回收到页框池
      * @param obj 页对象
      */
     @Override
     protected void releaseForCache(Page pg) {
-        if(pg.isDirty()){
-            flushPage(pg);
-            pg.setDirty(false);
+        if(prefetched.remove(pg.getPageNumber())) {
+            prefetchWasted.incrementAndGet();
         }
-
+        writeBack(pg, true);
+        framePool.recycle(pg.getBuffer());
     }
 
     /*
      *新建一个空白页，返回页号
+     *文件按区间预先扩展，新页面只在内存中初始化，第一次写回时才写入文件
+     *崩溃时还没有写入的页面由恢复过程根据日志重做
      */
     @Override
     public int newPage(byte[] initData) {
-        //原子地将当前值加一，并返回新值。
-        int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno, initData, null);
-        //将页数据写回到数据库文件中
-        flushPage(pg);
-        return pgno;
+        allocLock.lock();
+        try {
+            int pgno = pageNumbers.get() + 1;
+            long end = pageOffset(pgno + 1);
+            if(end > allocated) {
+                allocated = (end + extentSize - 1) / extentSize * extentSize;
+                pageFile.extend(allocated);
+            }
+            //先登记初始内容再发布页号，预读和读取都不会读到文件中的空白页
+            newPages.put(pgno, initData);
+            pageNumbers.set(pgno);
+            return pgno;
+        } finally {
+            allocLock.unlock();
+        }
+    }
+
+    /*
+     *页面由干净变脏，登记到脏页表，脏页过多时唤醒后台写线程
+     */
+    @Override
+    public void markDirty(Page pg) {
+        dirtyPages.put(pg.getPageNumber(), pg);
+        if(dirtyPages.size() >= dirtyHighWater) {
+            writer.wake();
+        }
+    }
+
+    /*
+     *把脏页写入文件，持有页面的独占锁，保证写入的页面内容是一致的
+     *写入完成后才从脏页表中移除，检查点的脏页快照包含正在被驱逐或后台写回的页面，写回时等待它们写完
+     * @param wait 页面正在被修改时是否等待，否则跳过该页，下一轮再写
+     * @return 是否写入了页面
+     */
+    private boolean writeBack(Page pg, boolean wait) {
+        if(wait) {
+            pg.lock();
+        } else if(!pg.tryLock()) {
+            return false;
+        }
+        try {
+            if(!pg.isDirty()) {
+                dirtyPages.remove(pg.getPageNumber(), pg);
+                return false;
+            }
+            pg.setDirty(false);
+            flushLog(pg);
+            pageFile.write(pageOffset(pg.getPageNumber()), pg.getBuffer().duplicate().clear());
+            newPages.remove(pg.getPageNumber());
+            unsynced.set(true);
+            dirtyPages.remove(pg.getPageNumber(), pg);
+            return true;
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    @Override
+    public void setLogger(Logger lg) {
+        this.logger = lg;
+    }
+
+    /*
+     *先写日志：普通页写入文件之前，作用在它上面的日志必须已经落盘
+     *第一页不记录日志，没有PageLSN
+     *格式版本0的普通页也没有PageLSN，不知道作用在页面上的最后一条日志，写回前把已写入的日志全部刷盘
+     */
+    private void flushLog(Page pg) {
+        if(logger == null || pg.getPageNumber() == 1) {
+            return;
+        }
+        if(formatVersion == 0) {
+            logger.flush(logger.endLSN());
+        } else {
+            logger.flush(PageNormal.getPageLSN(pg));
+        }
+    }
+
+    /*
+     *由后台写线程调用，把当前的脏页按页号排序后分批写回，每批force一次
+     */
+    void flushDirtyPages(int batchSize) {
+        List<Page> pages = new ArrayList<>(dirtyPages.values());
+        pages.sort(Comparator.comparingInt(Page::getPageNumber));
+        int written = 0;
+        for(Page pg : pages) {
+            if(writeBack(pg, false) && ++written % batchSize == 0) {
+                sync();
+            }
+        }
+        //驱逐和新建页面写入的数据也在这里force
+        sync();
+    }
+
+    /*
+     *检查点调用，等待正在修改或正在被其他线程写回的页面完成后写回，写回全部脏页后force一次
+     *其他线程写入的页面可能还在force之前，不能根据unsynced跳过，无条件force
+     */
+    @Override
+    public void flushAll() {
+        List<Page> pages = new ArrayList<>(dirtyPages.values());
+        pages.sort(Comparator.comparingInt(Page::getPageNumber));
+        for(Page pg : pages) {
+            writeBack(pg, true);
+        }
+        unsynced.set(false);
+        pageFile.sync();
+    }
+
+    /*
+     *后台写线程使用，没有新写入的页面时跳过force，不等待其他线程正在进行的写入
+     */
+    private void sync() {
+        if(unsynced.getAndSet(false)) {
+            pageFile.sync();
+        }
     }
 
 
     /*
      *根据页号获取页对象
+     *连续两次未命中的页号相邻时认为是顺序访问，预读后续的页面
+     *扫描中读入的页面（包括为扫描预读的页面）进入扫描环，环满时驱逐最早读入的页面
      */
     @Override
     public Page getPage(int pgno) throws Exception {
-        return get((long)pgno);
+        boolean loaded = beforeAccess(pgno);
+        Page pg = get((long)pgno);
+        afterAccess(pgno, loaded);
+        return pg;
+    }
+
+    /*
+     *异步获取页面，未命中时由I/O线程池读取，调用者可以同时发出多个读取
+     */
+    @Override
+    public CompletableFuture<Page> getPageAsync(int pgno) {
+        boolean loaded = beforeAccess(pgno);
+        CompletableFuture<Page> future = getAsync(pgno, ioPool);
+        afterAccess(pgno, loaded);
+        return future;
+    }
+
+    /*
+     *统计预读命中，识别顺序访问
+     * @return 页面是否是为这次访问读入的（未命中或命中预读的页面）
+     */
+    private boolean beforeAccess(int pgno) {
+        if(prefetched.remove(pgno)) {
+            prefetchHits.incrementAndGet();
+            return true;
+        }
+        if(!isCached(pgno)) {
+            if(lastMiss.getAndSet(pgno) + 1 == pgno) {
+                prefetch(pgno + 1, prefetchWindow);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     *扫描中读入的页面进入扫描环，需要预热的页面留在缓存中，不进入扫描环
+     */
+    private void afterAccess(int pgno, boolean loaded) {
+        ScanRing ring = scanRings.get();
+        if(ring != null && loaded && !warmPages.remove(pgno)) {
+            int old = ring.add(pgno);
+            if(old != 0 && old != pgno) {
+                evict(old);
+            }
+        }
+    }
+
+    /*
+     *读取预热文件，文件中的页面按热度从高到低排列，只保留最热的limit个
+     *预热文件在正常关闭时和后台写线程定期写入，崩溃后重启使用最近一次保存的记录
+     *记录只决定预热哪些页面，过期的记录只影响命中率，页号超出数据库的页面不会被扫描到
+     *预热不单独读文件：打开数据库时loadPageIndex顺序扫描所有页面，扫描到的预热页面留在缓存中，其余页面经过扫描环
+     *[Count][Pgno]...[Pgno]
+     */
+    private void loadWarmPages(int limit) {
+        if(!warmFile.exists()) {
+            return;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(warmFile.toPath()));
+            int count = Math.min(buf.getInt(), limit);
+            for(int i = 0; i < count; i ++) {
+                warmPages.add(buf.getInt());
+            }
+        } catch (Exception e) {
+            //预热文件损坏只影响预热，不影响数据
+            warmPages.clear();
+            warmFile.delete();
+        }
+        if(!warmUp) {
+            warmPages.clear();
+        }
+    }
+
+    /*
+     *把缓存中的页面按热度从高到低写入预热文件
+     *先写临时文件再改名，保存时崩溃不会留下不完整的预热文件；写入失败只影响预热，不影响数据
+     */
+    void saveWarmPages() {
+        List<Long> keys = residentKeys();
+        ByteBuffer buf = ByteBuffer.allocate(4 + 4 * keys.size());
+        buf.putInt(keys.size());
+        for(long key : keys) {
+            buf.putInt((int)key);
+        }
+        File tmp = new File(warmFile.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), buf.array());
+            Files.move(tmp.toPath(), warmFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+        }
+    }
+
+    @Override
+    public void beginScan() {
+        if(scanRingPages == 0) {
+            return;
+        }
+        ScanRing ring = scanRings.get();
+        if(ring == null) {
+            ring = new ScanRing(scanRingPages);
+            scanRings.set(ring);
+        }
+        ring.depth ++;
+    }
+
+    @Override
+    public void endScan() {
+        ScanRing ring = scanRings.get();
+        if(ring != null && --ring.depth == 0) {
+            scanRings.remove();
+        }
+    }
+
+    @Override
+    public void prefetch(int pgno, int count) {
+        if(prefetchWindow == 0 || closing) {
+            return;
+        }
+        int last = Math.min(pgno + Math.min(count, prefetchWindow) - 1, pageNumbers.get());
+        for(int p = pgno; p <= last; p ++) {
+            if(isCached(p) || !prefetching.add(p)) {
+                continue;
+            }
+            int target = p;
+            prefetcher.execute(() -> loadAhead(target));
+        }
+    }
+
+    /*
+     *把页面读入缓存后立即释放引用，页面留在缓存中等待访问
+     */
+    private void loadAhead(int pgno) {
+        try {
+            if(!closing && !isCached(pgno)) {
+                tryGet(pgno);
+                prefetched.add(pgno);
+                release((long)pgno);
+            }
+        } catch (Exception e) {
+            //缓存已满时放弃预读
+        } finally {
+            prefetching.remove(pgno);
+        }
+    }
+
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    public long getPrefetchWasted() {
+        return prefetchWasted.get();
+    }
+
+    // 当前等待空闲页面的线程数
+    public int getAdmissionQueueDepth() {
+        return getWaiters();
+    }
+
+    public int getMaxAdmissionQueueDepth() {
+        return getMaxWaiters();
+    }
+
+    // 等待空闲页面的次数
+    public long getAdmissionWaits() {
+        return getWaitCount();
+    }
+
+    // 等待空闲页面的总时间，单位毫秒
+    public long getAdmissionWaitMillis() {
+        return getWaitMillis();
     }
 
     /*
      *关闭页缓存
+     *预读线程可能正在读取文件，中断它会关闭共享的FileChannel，所以只停止排队的预读，等待正在进行的读取完成
      */
     @Override
     public void close() {
+        closing = true;
+        if(prefetcher != null) {
+            prefetcher.shutdown();
+            try {
+                while(!prefetcher.awaitTermination(1, TimeUnit.SECONDS)) {
+                    //每个预读任务只读一页，不会等待太久
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ioPool.shutdown();
+        try {
+            ioPool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.stop();
+        if(warmUp) {
+            saveWarmPages();
+        }
         //在抽象缓存类中会写回所有资源
         super.close();
-        try {
-            file.close();
-            fileChannel.close();
-        } catch (IOException e) {
-            Error.error(e);
+        //新建后没有被读取过的页面
+        for(Integer pgno : newPages.keySet()) {
+            pageFile.write(pageOffset(pgno), ByteBuffer.wrap(newPages.remove(pgno)));
+            unsynced.set(true);
         }
+        sync();
+        //截去预先分配而没有使用的部分
+        pageFile.truncate(pageOffset(pageNumbers.get() + 1));
+        pageFile.close();
 
     }
 
@@ -131,13 +529,15 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
      */
     @Override
     public void truncateByPgno(int maxPgno) {
-        long size = pageOffset(maxPgno + 1);
+        allocLock.lock();
         try {
-            file.setLength(size);
-        } catch (IOException e) {
-            Error.error(e);
+            allocated = pageOffset(maxPgno + 1);
+            pageFile.truncate(allocated);
+            pageNumbers.set(maxPgno);
+            newPages.keySet().removeIf(pgno -> pgno > maxPgno);
+        } finally {
+            allocLock.unlock();
         }
-        pageNumbers.set(maxPgno);
     }
 
     /*
@@ -148,23 +548,32 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         return pageNumbers.intValue();
     }
 
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
     /*
-     *将页数据写回到数据库文件中
+     *将页数据立即写回到数据库文件中并force
      */
     @Override
     public void flushPage(Page pg) {
-        int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
-        fileLock.lock();
+        pg.lock();
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fileChannel.position(offset);
-            fileChannel.write(buf);
-            fileChannel.force(false);
-        } catch(IOException e) {
-            Error.error(e);
+            pg.setDirty(false);
+            flushLog(pg);
+            pageFile.write(pageOffset(pg.getPageNumber()), pg.getBuffer().duplicate().clear());
+            newPages.remove(pg.getPageNumber());
+            dirtyPages.remove(pg.getPageNumber(), pg);
         } finally {
-            fileLock.unlock();
+            pg.unlock();
         }
+        unsynced.set(false);
+        pageFile.sync();
     }
 }
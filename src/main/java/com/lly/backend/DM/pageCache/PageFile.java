@@ -0,0 +1,23 @@
+package com.lly.backend.DM.pageCache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据库文件的读写方式，PageCacheImpl 通过它读写页面
+ * 偏移和长度以字节为单位，页号到偏移的换算由 PageCacheImpl 负责
+ */
+interface PageFile {
+    // 从offset处读取dst.remaining()个字节，超出文件末尾的部分填0
+    void read(long offset, ByteBuffer dst);
+    // 将src剩余的字节写入offset处，不保证落盘
+    void write(long offset, ByteBuffer src);
+    // 将已写入的数据强制刷到磁盘
+    void sync();
+    // 截断文件到size字节
+    void truncate(long size);
+    // 预先分配文件空间到至少size字节，新分配的部分内容为0，不改变已有数据
+    void extend(long size);
+    // 文件的长度
+    long length();
+    void close();
+}
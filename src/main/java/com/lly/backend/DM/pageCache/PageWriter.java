@@ -0,0 +1,95 @@
+package com.lly.backend.DM.pageCache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 后台脏页写回线程
+ * 每隔interval毫秒，或脏页数超过高水位时被唤醒，把脏页按页号排序后分批写回，每批只force一次
+ * 数据的持久性由日志保证，前台释放和驱逐页面都不需要等待force
+ * 每隔warmInterval毫秒顺带保存一次预热文件，数据库没有正常关闭时重启也能预热
+ */
+class PageWriter implements Runnable {
+
+    private PageCacheImpl pc;
+    private long interval;    // 唤醒间隔，毫秒
+    private int batchSize;    // 每批写回的最大页数
+    private long warmInterval;    // 保存预热文件的间隔，毫秒，为0时不保存
+    private long lastWarmSave;
+
+    private Lock lock;
+    private Condition wakeup;
+    private boolean signaled;
+    private volatile boolean running;
+    private Thread thread;
+
+    PageWriter(PageCacheImpl pc, long interval, int batchSize, long warmInterval) {
+        this.pc = pc;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.warmInterval = warmInterval;
+        this.lastWarmSave = System.currentTimeMillis();
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, "page-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 脏页过多时立即唤醒写线程
+     */
+    void wake() {
+        lock.lock();
+        try {
+            signaled = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止写线程，剩余的脏页由页面缓存关闭时写回
+     */
+    void stop() {
+        running = false;
+        wake();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(running) {
+            lock.lock();
+            try {
+                if(!signaled) {
+                    wakeup.await(interval, TimeUnit.MILLISECONDS);
+                }
+                signaled = false;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if(running) {
+                pc.flushDirtyPages(batchSize);
+            }
+            long now = System.currentTimeMillis();
+            if(running && warmInterval > 0 && now - lastWarmSave >= warmInterval) {
+                pc.saveWarmPages();
+                lastWarmSave = now;
+            }
+        }
+    }
+}
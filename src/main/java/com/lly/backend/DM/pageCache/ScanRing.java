@@ -0,0 +1,27 @@
+package com.lly.backend.DM.pageCache;
+
+/**
+ * 全表扫描使用的环形缓冲区
+ * 记录扫描过程中读入缓存的页面，环满时挤出最早读入的页面，由页面缓存立即驱逐，
+ * 扫描因此只占用固定数量的页框，不会把其他查询的热点页面挤出缓存
+ */
+class ScanRing {
+    private int[] slots;    // 扫描读入的页号，0表示空位
+    private int next;    // 下一个写入的位置
+    int depth;    // 嵌套的扫描层数
+
+    ScanRing(int size) {
+        this.slots = new int[size];
+    }
+
+    /**
+     * 记录一个扫描读入的页面
+     * @return 被挤出环的页号，环未满时返回0
+     */
+    int add(int pgno) {
+        int old = slots[next];
+        slots[next] = pgno;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+}
@@ -1,8 +1,6 @@
 package com.lly.backend.DM.pageIndex;
 
 
-import com.lly.backend.DM.pageCache.PageCache;
-
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
@@ -15,12 +13,13 @@ import java.util.concurrent.locks.ReentrantLock;
 public class PageIndex {
     // 一个页分为40个区间进行存储
     private static final int INTERVALS_NO = 40;
-    // 每个区间的大小
-    private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
+    // 每个区间的大小，由页大小决定
+    private final int THRESHOLD;
     private Lock lock;
     private List<PageInfo>[] lists;
 
-    public PageIndex() {
+    public PageIndex(int pageSize) {
+        THRESHOLD = pageSize / INTERVALS_NO;
         lock = new ReentrantLock();
         lists = new List[INTERVALS_NO+1];
         for (int i = 0; i < INTERVALS_NO+1; i ++) {
@@ -8,7 +8,6 @@ import com.lly.common.utils.Parser;
 import com.lly.backend.IM.Node.InsertAndSplitRes;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,6 +17,8 @@ public class BPlusTree {
     long bootUid; //根节点不是固定的，所以需要一个bootUid来记录根节点的uid
     DataItem bootDataItem;//根节点的DataItem
     Lock bootLock;
+    int balanceNumber;//节点的平衡因子，由数据库的页大小决定
+    int nodeSize;
 
     /**
      * 创建一个新的B+树,根节点为一个空的叶子节点
@@ -26,7 +27,7 @@ public class BPlusTree {
      * @throws Exception
      */
     public static long create(DataManager dm) throws Exception {
-        byte[] nilRootRaw = Node.newNilRootRaw();
+        byte[] nilRootRaw = Node.newNilRootRaw(Node.nodeSize(Node.balanceNumber(dm.getPageSize())));
         long rootUid = dm.insert(TransactionManagerImpl.SUPER_XID, nilRootRaw);
         return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
     }
@@ -46,6 +47,8 @@ public class BPlusTree {
         t.dm = dm;
         t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
+        t.balanceNumber = Node.balanceNumber(dm.getPageSize());
+        t.nodeSize = Node.nodeSize(t.balanceNumber);
         return t;
     }
 
@@ -61,8 +64,16 @@ public class BPlusTree {
      */
     public List<Long> searchRange(long leftKey, long rightKey) throws Exception {
         long rootUid = getRootUid();
-        //从根节点开始搜索，找到leftKey对应的nodeUid
-        long leafUid = getUidByKey(rootUid, leftKey);
+        //从根节点开始搜索，找到leftKey对应的叶子节点，并记录它的父节点
+        long parentUid = 0;
+        long leafUid = rootUid;
+        while(!isLeaf(leafUid)) {
+            parentUid = leafUid;
+            leafUid = searchLeaf(leafUid, leftKey);
+        }
+        if(parentUid != 0) {
+            prefetchLeaves(parentUid, leftKey, rightKey);
+        }
         List<Long> uids = new ArrayList<>();
         while(true) {
             Node leaf = Node.loadNode(this, leafUid);
@@ -79,29 +90,31 @@ public class BPlusTree {
         return uids;
     }
 
-
     /**
-     * 读取key对应的nodeUid
-     * @param nodeUid 查找的起始节点
-     * @param key 键
-     * @return nodeUid
-     * @throws Exception
+     * 提示预读范围查找随后要读取的叶子节点
+     * 第一个叶子节点马上就要同步读取，预读它之后的兄弟节点，读取前面的叶子节点时后面的已经在读入
+     * 只预读父节点中的子节点，范围跨过父节点时后面的叶子节点不再预读
+     * @param parentUid 第一个叶子节点的父节点
+     * @param leftKey
+     * @param rightKey
      */
-    private long getUidByKey(long nodeUid, long key) throws Exception {
+    private void prefetchLeaves(long parentUid, long leftKey, long rightKey) throws Exception {
+        Node parent = Node.loadNode(this, parentUid);
+        List<Long> sons = parent.sonsInRange(leftKey, rightKey);
+        parent.release();
+        for(int i = 1; i < sons.size(); i ++) {
+            dm.prefetch(sons.get(i));
+        }
+    }
+
+    private boolean isLeaf(long nodeUid) throws Exception {
         Node node = Node.loadNode(this, nodeUid);
         boolean isLeaf = node.isLeaf();
         node.release();
-
-        if(isLeaf) {
-            return node.uid;
-        } else {
-            //当前节点不是叶子节点，向下找到key所在的叶子节点
-            long nextUid = searchLeaf(nodeUid, key);
-            return getUidByKey(nextUid, key);
-        }
-
+        return isLeaf;
     }
 
+
     /**
      * 在B+树从某节点搜索键key应该插入的叶子节点
      * @param nodeUid 开始搜索的起始节点
@@ -129,7 +142,7 @@ public class BPlusTree {
         bootLock.lock();
         try {
             MySubArray sa = bootDataItem.data();
-            return Parser.getLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start+8));
+            return sa.raw.getLong(sa.start);
         } finally {
             bootLock.unlock();
         }
@@ -141,11 +154,11 @@ public class BPlusTree {
     private void updateRootUid(long left, long right, long rightKey) throws Exception {
         bootLock.lock();
         try{
-            byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
+            byte[] rootRaw = Node.newRootRaw(left, right, rightKey, nodeSize);
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
             bootDataItem.before();
             MySubArray diRaw = bootDataItem.data();
-            System.arraycopy(Parser.long2Byte(newRootUid),0,diRaw.raw,diRaw.start,8);
+            diRaw.raw.putLong(diRaw.start, newRootUid);
             bootDataItem.after(TransactionManagerImpl.SUPER_XID);
         }finally {
             bootLock.unlock();
@@ -181,7 +194,7 @@ public class BPlusTree {
         else{
             //向下寻找应该插入的叶子节点
             long next = searchLeaf(nodeUid, key);
-            InsertRes ir = insert(next, uid, key);
+            InsertRes ir = insert(next, key, uid);
             if(ir.newNode != 0) {
                 //分裂了新节点，将新节点插入
                 res = insertAndSplit(nodeUid, ir.newNode, ir.newKey);
@@ -3,10 +3,8 @@ package com.lly.backend.IM;
 import com.lly.backend.DM.dataItem.DataItem;
 import com.lly.backend.TM.TransactionManagerImpl;
 import com.lly.backend.common.MySubArray;
-import com.lly.common.utils.Parser;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -22,10 +20,15 @@ public class Node {
     static final int NODE_HEADER_SIZE = Bro_OFFSET+8;//大小为11Byte
 
 
-    static final int BALANCE_NUMBER = 32;
+    //平衡因子随页大小变化，每256字节对应1，8KB的页为32
+    static int balanceNumber(int pageSize) {
+        return pageSize / 256;
+    }
 
-    //(2*8)代表一组[Son0][Key0]，(BALANCE_NUMBER*2+2)的2主要是在b+树插入删除溢出时临时使用
-    static final int NODE_SIZE = NODE_HEADER_SIZE + (2*8)*(BALANCE_NUMBER*2+2);
+    //(2*8)代表一组[Son0][Key0]，(balanceNumber*2+2)的2主要是在b+树插入删除溢出时临时使用
+    static int nodeSize(int balanceNumber) {
+        return NODE_HEADER_SIZE + (2*8)*(balanceNumber*2+2);
+    }
 
     BPlusTree tree;
     DataItem dataItem;
@@ -37,32 +40,34 @@ public class Node {
      * @param left 左子树的 UID
      * @param right 右子树的 UID
      * @param key
+     * @param nodeSize 节点大小
      * @return
      */
-    static byte[] newRootRaw(long left,long right,long key){
-        MySubArray raw = new MySubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newRootRaw(long left,long right,long key,int nodeSize){
+        MySubArray raw = new MySubArray(new byte[nodeSize], 0, nodeSize);
         setRawIsLeaf(raw, false);
         setRawNoKeys(raw, 2);
         setRawBro(raw, 0);
         setRawKthSon(raw, left, 0);
         setRawKthKey(raw, key, 0);
         setRawKthSon(raw, right, 1);
-        setRawKthKey(raw, 0, 1);
-        return raw.raw;
+        setRawKthKey(raw, Long.MAX_VALUE, 1);
+        return raw.raw.array();
     }
 
     /**
      * 生成一个空的根节点
+     * @param nodeSize 节点大小
      * @return
      */
-    static byte[] newNilRootRaw()  {
-        MySubArray raw = new MySubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newNilRootRaw(int nodeSize)  {
+        MySubArray raw = new MySubArray(new byte[nodeSize], 0, nodeSize);
 
         setRawIsLeaf(raw, true);
         setRawNoKeys(raw, 0);
         setRawBro(raw, 0);
 
-        return raw.raw;
+        return raw.raw.array();
     }
 
     /**
@@ -184,6 +189,35 @@ public class Node {
     }
 
 
+    /**
+     * 内部节点中子树与[leftKey, rightKey]有交集的子节点，供范围查找预读后续的叶子节点
+     * @param leftKey
+     * @param rightKey
+     * @return 按键值从小到大排列的子节点uid
+     */
+    public List<Long> sonsInRange(long leftKey, long rightKey) {
+        dataItem.rLock();
+        try {
+            List<Long> sons = new ArrayList<>();
+            int noKeys = getRawNoKeys(raw);
+            //第i个子节点的键值范围为[key(i-1), key(i))，与searchNext的选择一致
+            for(int i = 0; i < noKeys; i ++) {
+                long ik = getRawKthKey(raw, i);
+                if(ik <= leftKey) {
+                    continue;
+                }
+                sons.add(getRawKthSon(raw, i));
+                if(rightKey < ik) {
+                    break;
+                }
+            }
+            return sons;
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+
     class InsertAndSplitRes {
         long broUid, newSon, newKey;
     }
@@ -231,14 +265,14 @@ public class Node {
 
 
     private SplitRes split() throws Exception {
-        MySubArray nodeRaw = new MySubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+        MySubArray nodeRaw = new MySubArray(new byte[tree.nodeSize], 0, tree.nodeSize);
         setRawIsLeaf(nodeRaw, getRawIfLeaf(raw));
-        setRawNoKeys(nodeRaw, BALANCE_NUMBER);
+        setRawNoKeys(nodeRaw, tree.balanceNumber);
         setRawBro(nodeRaw, getRawBro(raw));
-        copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
-        long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
+        copyRawFromKth(raw, nodeRaw, tree.balanceNumber);
+        long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw.array());
 
-        setRawNoKeys(raw, BALANCE_NUMBER);
+        setRawNoKeys(raw, tree.balanceNumber);
         setRawBro(raw, son);
 
         SplitRes res = new SplitRes();
@@ -248,7 +282,7 @@ public class Node {
     }
 
     private boolean neddSplit() {
-        return BALANCE_NUMBER*2 == getRawNoKeys(raw);
+        return tree.balanceNumber*2 == getRawNoKeys(raw);
 
     }
 
@@ -296,13 +330,13 @@ public class Node {
      */
     static void setRawIsLeaf(MySubArray raw, boolean isLeaf) {
         if(isLeaf) {
-            raw.raw[raw.start + IS_LEAF_OFFSET] = (byte)1;
+            raw.raw.put(raw.start + IS_LEAF_OFFSET, (byte)1);
         } else {
-            raw.raw[raw.start + IS_LEAF_OFFSET] = (byte)0;
+            raw.raw.put(raw.start + IS_LEAF_OFFSET, (byte)0);
         }
     }
     static boolean getRawIfLeaf(MySubArray raw) {
-        return raw.raw[raw.start + IS_LEAF_OFFSET] == (byte)1;
+        return raw.raw.get(raw.start + IS_LEAF_OFFSET) == (byte)1;
     }
 
     /**
@@ -311,10 +345,10 @@ public class Node {
      * @param noKeys
      */
     static void setRawNoKeys(MySubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short)noKeys), 0, raw.raw, raw.start+NO_KEYS_OFFSET, 2);
+        raw.raw.putShort(raw.start+NO_KEYS_OFFSET, (short)noKeys);
     }
     static int getRawNoKeys(MySubArray raw) {
-        return (int)Parser.getShort(Arrays.copyOfRange(raw.raw, raw.start+NO_KEYS_OFFSET, raw.start+NO_KEYS_OFFSET+2));
+        return (int)raw.raw.getShort(raw.start+NO_KEYS_OFFSET);
     }
 
 
@@ -324,10 +358,10 @@ public class Node {
      * @param Bro
      */
     static void setRawBro(MySubArray raw, long Bro) {
-        System.arraycopy(Parser.long2Byte(Bro), 0, raw.raw, raw.start+Bro_OFFSET, 8);
+        raw.raw.putLong(raw.start+Bro_OFFSET, Bro);
     }
     static long getRawBro(MySubArray raw) {
-        return Parser.getLong(Arrays.copyOfRange(raw.raw, raw.start+Bro_OFFSET, raw.start+Bro_OFFSET+8));
+        return raw.raw.getLong(raw.start+Bro_OFFSET);
     }
 
     /**
@@ -338,11 +372,11 @@ public class Node {
      */
     static void setRawKthSon(MySubArray raw, long uid, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.raw, offset, 8);
+        raw.raw.putLong(offset, uid);
     }
     static long getRawKthSon(MySubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        return Parser.getLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return raw.raw.getLong(offset);
     }
 
     /**
@@ -353,11 +387,11 @@ public class Node {
      */
     static void setRawKthKey(MySubArray raw, long key, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.raw, offset, 8);
+        raw.raw.putLong(offset, key);
     }
     static long getRawKthKey(MySubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        return Parser.getLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        return raw.raw.getLong(offset);
     }
 
     /**
@@ -368,7 +402,7 @@ public class Node {
      */
     static void copyRawFromKth(MySubArray from, MySubArray to, int kth) {
         int offset = from.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(from.raw, offset, to.raw, to.start+NODE_HEADER_SIZE, from.end-offset);
+        to.raw.put(to.start+NODE_HEADER_SIZE, from.raw, offset, from.end-offset);
     }
 
     /**
@@ -378,9 +412,9 @@ public class Node {
      */
     static void shiftRawKth(MySubArray raw, int kth) {
         int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
+        int end = raw.end-1;
         for(int i = end; i >= begin; i --) {
-            raw.raw[i] = raw.raw[i-(8*2)];
+            raw.raw.put(i, raw.raw.get(i-(8*2)));
         }
     }
 
@@ -140,16 +140,37 @@ public class Table {
      * select
      */
     public String read(long xid, Select select) throws Exception {
-        List<Long> uids = parseWhere(select.where);
-        StringBuilder sb = new StringBuilder();
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
-            if(raw == null) continue;
-            //提取字节形式行数据
-            Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry)).append("\n");
+        beginScan(select.where);
+        try {
+            List<Long> uids = parseWhere(select.where);
+            StringBuilder sb = new StringBuilder();
+            for (Long uid : uids) {
+                byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
+                if(raw == null) continue;
+                //提取字节形式行数据
+                Map<String, Object> entry = parseEntry(raw);
+                sb.append(printEntry(entry)).append("\n");
+            }
+            return sb.toString();
+        } finally {
+            endScan(select.where);
+        }
+    }
+
+    /**
+     * 没有where条件时是全表扫描，扫描读入的页面只占用页面缓存的一个小的环形缓冲区，
+     * 不会把点查询依赖的热点页面挤出缓存
+     */
+    private void beginScan(Where where) {
+        if(where == null) {
+            ((TableManagerImpl)tbm).dm.beginScan();
+        }
+    }
+
+    private void endScan(Where where) {
+        if(where == null) {
+            ((TableManagerImpl)tbm).dm.endScan();
         }
-        return sb.toString();
     }
 
 
@@ -231,7 +252,6 @@ public class Table {
     }
 
     public int update(long xid, Update update) throws Exception {
-        List<Long> uids = parseWhere(update.where);
         //找到要更新的字段
         Field fd = null;
         for (Field f : fields) {
@@ -245,37 +265,48 @@ public class Table {
         }
 
         Object value = fd.string2Value(update.value);
-        int count = 0;
-        for (Long uid:uids){
-            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
-            if(raw == null) continue;
-            ((TableManagerImpl)tbm).vm.delete(xid, uid);
-
-            Map<String, Object> entry = parseEntry(raw);
-            entry.put(fd.fieldName, value);
-            raw = entry2Raw(entry);
-
-            long newUid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
-            count++;
-            for (Field field : fields) {
-                if(field.isIndexed()) {
-                    field.insert(entry.get(field.fieldName), newUid);
+        beginScan(update.where);
+        try {
+            List<Long> uids = parseWhere(update.where);
+            int count = 0;
+            for (Long uid:uids){
+                byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
+                if(raw == null) continue;
+                ((TableManagerImpl)tbm).vm.delete(xid, uid);
+
+                Map<String, Object> entry = parseEntry(raw);
+                entry.put(fd.fieldName, value);
+                raw = entry2Raw(entry);
+
+                long newUid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
+                count++;
+                for (Field field : fields) {
+                    if(field.isIndexed()) {
+                        field.insert(entry.get(field.fieldName), newUid);
+                    }
                 }
             }
+            return count;
+        } finally {
+            endScan(update.where);
         }
-        return count;
 
     }
 
     public int delete(long xid, Delete delete) throws Exception {
-        List<Long> uids = parseWhere(delete.where);
-        int count = 0;
-        for (Long uid : uids) {
-            if(((TableManagerImpl)tbm).vm.delete(xid, uid)) {
-                count ++;
+        beginScan(delete.where);
+        try {
+            List<Long> uids = parseWhere(delete.where);
+            int count = 0;
+            for (Long uid : uids) {
+                if(((TableManagerImpl)tbm).vm.delete(xid, uid)) {
+                    count ++;
+                }
             }
+            return count;
+        } finally {
+            endScan(delete.where);
         }
-        return count;
     }
 
     class CalWhereRes {
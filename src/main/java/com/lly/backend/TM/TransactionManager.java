@@ -8,18 +8,25 @@ import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Collection;
 
 public interface TransactionManager {
 
     //开启事务
     long begin();
 
-    //提交事务
+    //提交事务，只在内存中记录，调用者先把提交日志写入日志，由syncStatuses写入XID文件
     void commit(long xid);
 
-    //取消事务
+    //取消事务，只在内存中记录，由syncStatuses写入XID文件
     void abort(long xid);
 
+    //已经结束、状态还没有写入XID文件的事务
+    Collection<Long> unsynced();
+
+    //把这些事务的状态写入XID文件，只force一次，调用者保证它们的提交日志已经落盘
+    void syncStatuses(Collection<Long> xids);
+
     //关闭事务
     void close();
 
@@ -32,6 +39,12 @@ public interface TransactionManager {
     //查询事务是否为已经取消的事务
     boolean isAborted(long xid);
 
+    //查询事务是否已经结束，并且结束状态已经写入XID文件
+    boolean isFinished(long xid);
+
+    //恢复完成后调用，把上次运行留下的仍为活跃的事务标记为取消，包括预留了但没有使用的XID
+    void abortLeftovers();
+
     /*
     * 创建事务管理器,根据传入的路径新建一个XID文件，注意若文件已经存在则抛出异常
     * 再建立RandomAccessFile和FileChannel,并写入空XID文件头，即设置 xidCounter 为 0
@@ -8,6 +8,10 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -17,6 +21,8 @@ public class TransactionManagerImpl implements TransactionManager{
     static final int LEN_XID_HEADER_LENGTH = 8;
     // 每个事务的占用长度
     private static final int XID_FIELD_SIZE = 1;
+    // 每次预留的XID个数
+    private static final int XID_RESERVE = 1 << 12;
     // 事务的三种状态
     private static final byte FIELD_TRAN_ACTIVE   = 0;
     private static final byte FIELD_TRAN_COMMITTED = 1;
@@ -31,8 +37,12 @@ public class TransactionManagerImpl implements TransactionManager{
     private RandomAccessFile file; //使用RandomAccessFile存储事务信息，允许随机访问文件中的任何位置
     private FileChannel fileChannel;//FileChannel是一个连接到文件的通道，可以通过文件通道读写文件
 
-    private long xidCounter;//事务计数器，用于生成事务ID
+    private long xidCounter;//事务计数器，用于生成事务ID，只在内存中递增
+    private long reservedXID;//XID文件中已经预留的最大XID
+    private long lastRunXID;//打开时已经预留的最大XID，不超过它的XID都属于之前的运行
     private Lock counterLock;//使用ReentrantLock实现事务计数器的线程安全
+    private Set<Long> unsynced;//已经结束、状态还没有写入XID文件的事务
+    XIDStatusTable statuses;//全部事务状态在内存中的缓存，查询状态不读文件
 
 
     /**
@@ -44,12 +54,42 @@ public class TransactionManagerImpl implements TransactionManager{
         this.file = raf;
         this.fileChannel = fileChannel;
         this.counterLock = new ReentrantLock();
+        this.unsynced = ConcurrentHashMap.newKeySet();
+        this.statuses = new XIDStatusTable();
         checkXIDCounter();
+        loadStatuses();
+    }
+
+    /**
+     * 启动时顺序读一遍XID文件，载入全部事务的状态
+     */
+    private void loadStatuses() {
+        statuses.ensure(reservedXID);
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long xid = 1;
+        try {
+            while(xid <= reservedXID) {
+                buf.clear();
+                buf.limit((int)Math.min(buf.capacity(), reservedXID - xid + 1));
+                while(buf.hasRemaining()) {
+                    if(fileChannel.read(buf, getXidPosition(xid) + buf.position()) < 0) {
+                        Error.error(ErrorItem.BadXIDFileException);
+                    }
+                }
+                for(int i = 0; i < buf.limit(); i ++) {
+                    statuses.set(xid + i, buf.get(i));
+                }
+                xid += buf.limit();
+            }
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        statuses.advance(FIELD_TRAN_ACTIVE);
     }
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_FILE_HEADER中的xidcounter，根据它计算文件的理论长度，对比实际长度
+     * 读取XID_FILE_HEADER中预留的最大XID，根据它计算文件的理论长度，实际长度不能比它短
      */
     private void checkXIDCounter(){
         Long fileLen = 0L;
@@ -70,13 +110,18 @@ public class TransactionManagerImpl implements TransactionManager{
         } catch (IOException e) {
             Error.error(ErrorItem.BadXIDFileException);
         }
-        //头文件的8个字节存储xidCounter的值
-        xidCounter= Parser.getLong(buf.array());
+        //头文件的8个字节存储已经预留的最大XID
+        reservedXID = Parser.getLong(buf.array());
         //计算文件的理论长度，end指向下一个事务的开始位置，也就是文件的末尾
-        long end= getXidPosition(xidCounter+1);
-        if(end != fileLen){
+        long end = getXidPosition(reservedXID+1);
+        if(fileLen < end){
             Error.error(ErrorItem.BadXIDFileException);
         }
+        // 扩展文件后、写入文件头前崩溃，多出的部分全为0，同样是预留的XID
+        reservedXID = (fileLen - LEN_XID_HEADER_LENGTH) / XID_FIELD_SIZE;
+        // 上次没有用完的XID不再使用，它们没有写过日志，由abortLeftovers标记为取消
+        xidCounter = reservedXID;
+        lastRunXID = reservedXID;
     }
 
     /**
@@ -90,29 +135,27 @@ public class TransactionManagerImpl implements TransactionManager{
     }
 
     /**
-     * 开启一个事务应该包含如下步骤：
-     * 1. 获取事务的xid
-     * 2. 在文件中把xid事务状态设置为active
-     * 2. 更新XID Header为新的xidCounter的值
+     * 开启一个事务，从内存中的计数器取得xid，不写文件
+     * XID文件按XID_RESERVE个一段预留，预留部分全为0，即active状态，用完时才扩展文件并更新文件头
+     * active状态不需要落盘：崩溃时没有落盘提交状态的事务都会被当作没有提交
      * @return
      */
     @Override
     public long begin() {
         counterLock.lock();
         try {
-            long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
+            if(xidCounter == reservedXID) {
+                reserveXIDs();
+            }
+            return ++xidCounter;
         } finally {
             counterLock.unlock();
         }
     }
 
-
-
     /**
-     * 更新xid事务的状态为status
+     * 把xid事务的状态status写入XID文件，不force
+     * 使用带偏移的write，检查点线程和其他线程可以同时更新
      * @param xid
      * @param status
      */
@@ -124,58 +167,97 @@ public class TransactionManagerImpl implements TransactionManager{
         ByteBuffer buf = ByteBuffer.wrap(tmp);
         //将状态写入文件指定位置
         try {
-            fileChannel.position(offset);
-            fileChannel.write(buf);
-        } catch (IOException e) {
-            Error.error(e);
-        }
-        try {
-            //强制同步缓存内容到文件中，防止数据丢失
-            fileChannel.force(false);
+            fileChannel.write(buf, offset);
         } catch (IOException e) {
             Error.error(e);
         }
+    }
 
+    /**
+     * 在内存中结束一个事务，先加入unsynced，任何时候isFinished都不会把状态还没写入文件的事务当作已经结束
+     */
+    private void finish(long xid, byte status) {
+        unsynced.add(xid);
+        statuses.set(xid, status);
+        statuses.advance(FIELD_TRAN_ACTIVE);
     }
 
     /**
-     * 将XID加一，并更新XID Header
+     * 预留下一段XID：先把文件扩展到新的长度并落盘，再更新XID Header
+     * 两步之间崩溃时文件比文件头记录的长，打开时按文件长度计算预留的XID
      */
-    private void incrXIDCounter() {
-        xidCounter++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
-        //写入
-        try {
-            fileChannel.position(0);
-            fileChannel.write(buf);
-        } catch (IOException e) {
-            Error.error(e);
-        }
-        //强制同步缓存内容到文件中，防止数据丢失
+    private void reserveXIDs() {
+        long reserved = reservedXID + XID_RESERVE;
+        statuses.ensure(reserved);
         try {
+            file.setLength(getXidPosition(reserved + 1));
+            fileChannel.force(true);
+            ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(reserved));
+            fileChannel.write(buf, 0);
             fileChannel.force(false);
         } catch (IOException e) {
             Error.error(e);
         }
+        reservedXID = reserved;
     }
 
     /**
-     * 提交XID事务，更新xid事务的状态为committed
+     * 提交XID事务，提交日志已经写入日志，事务持久化以提交日志落盘为准，XID文件只是日志的缓存
      * @param xid
      */
     @Override
     public void commit(long xid) {
-        updateXID(xid, FIELD_TRAN_COMMITTED);
-
+        finish(xid, FIELD_TRAN_COMMITTED);
     }
 
     /**
-     * 取消XID事务，更新xid事务的状态为aborted
+     * 取消XID事务，没有落盘结束状态的事务在恢复时同样会被撤销
      * @param xid
      */
     @Override
     public void abort(long xid) {
-        updateXID(xid, FIELD_TRAN_ABORTED);
+        finish(xid, FIELD_TRAN_ABORTED);
+    }
+
+    /**
+     * 之前的运行中分配的事务不会再继续执行，恢复之后仍为活跃的是预留了没有使用的XID和崩溃时没有写过日志的事务
+     * 把它们标记为取消，否则horizon会一直停在它们上面；和其他结束的事务一样在检查点写入XID文件
+     * 必须在恢复之后调用，恢复根据事务是否活跃决定撤销哪些日志
+     */
+    @Override
+    public void abortLeftovers() {
+        for(long xid = Math.max(statuses.horizon(), 1); xid <= lastRunXID; xid ++) {
+            if(statuses.get(xid) == FIELD_TRAN_ACTIVE) {
+                unsynced.add(xid);
+                statuses.set(xid, FIELD_TRAN_ABORTED);
+            }
+        }
+        statuses.advance(FIELD_TRAN_ACTIVE);
+    }
+
+    @Override
+    public Collection<Long> unsynced() {
+        return new ArrayList<>(unsynced);
+    }
+
+    /**
+     * 先写入XID文件再从unsynced中移除
+     */
+    @Override
+    public void syncStatuses(Collection<Long> xids) {
+        if(xids.isEmpty()) {
+            return;
+        }
+        for(long xid : xids) {
+            updateXID(xid, statuses.get(xid));
+        }
+        try {
+            //强制同步缓存内容到文件中，防止数据丢失
+            fileChannel.force(false);
+        } catch (IOException e) {
+            Error.error(e);
+        }
+        unsynced.removeAll(xids);
     }
 
     /**
@@ -209,23 +291,21 @@ public class TransactionManagerImpl implements TransactionManager{
         return checkXIDStatus(xid, FIELD_TRAN_ABORTED);
     }
 
+    @Override
+    public boolean isFinished(long xid) {
+        return !unsynced.contains(xid) && !isAlive(xid);
+    }
+
     /**
-     * 检测XID事务是否处于status状态
+     * 检测XID事务是否处于status状态，只读内存中的状态表
+     * 小于horizon的事务都已经结束，查询是否活跃不需要查表
      * @param xid
      * @param status
      * @return
      */
     private boolean checkXIDStatus(long xid, byte status) {
         if(xid == SUPER_XID) return false;
-
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
-        try {
-            fileChannel.position(offset);
-            fileChannel.read(buf);
-        } catch (IOException e) {
-           Error.error(e);
-        }
-        return buf.array()[0] == status;
+        if(status == FIELD_TRAN_ACTIVE && xid < statuses.horizon()) return false;
+        return statuses.get(xid) == status;
     }
 }
@@ -0,0 +1,94 @@
+package com.lly.backend.TM;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存中的事务状态表
+ * 每个事务的状态占2位，一个long保存32个事务，按块分配，扩容时只复制块目录，已有的块不会被替换，并发更新不会丢失
+ * 查询不加锁，只读内存；事务结束时先更新状态表，XID文件在检查点时才写入
+ * horizon: 小于它的事务全部已经结束，查询这些事务是否活跃可以直接回答，是否提交仍以状态位为准
+ * 提交和取消都推进horizon，取消的事务不会让它停下
+ */
+class XIDStatusTable {
+
+    private static final int BITS = 2;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int PER_LONG = Long.SIZE / BITS;
+    // 每块的long个数，一块保存2M个事务
+    private static final int CHUNK_LONGS = 1 << 16;
+    private static final long PER_CHUNK = (long)CHUNK_LONGS * PER_LONG;
+
+    private volatile AtomicLongArray[] chunks;
+    private AtomicLong horizon;
+
+    XIDStatusTable() {
+        chunks = new AtomicLongArray[0];
+        horizon = new AtomicLong(1);
+    }
+
+    /**
+     * 保证xid所在的块已经分配，只在分配xid时调用
+     */
+    synchronized void ensure(long xid) {
+        int index = (int)(xid / PER_CHUNK);
+        if(index < chunks.length) {
+            return;
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length * 2));
+        for(int i = chunks.length; i < grown.length; i ++) {
+            grown[i] = new AtomicLongArray(CHUNK_LONGS);
+        }
+        chunks = grown;
+    }
+
+    /**
+     * 查询xid的状态，还没有分配的xid视为活跃
+     */
+    byte get(long xid) {
+        AtomicLongArray[] cs = chunks;
+        int index = (int)(xid / PER_CHUNK);
+        if(index >= cs.length) {
+            return 0;
+        }
+        long inChunk = xid % PER_CHUNK;
+        long word = cs[index].get((int)(inChunk / PER_LONG));
+        return (byte)((word >>> shift(inChunk)) & MASK);
+    }
+
+    void set(long xid, byte status) {
+        long inChunk = xid % PER_CHUNK;
+        AtomicLongArray chunk = chunks[(int)(xid / PER_CHUNK)];
+        int i = (int)(inChunk / PER_LONG);
+        int shift = shift(inChunk);
+        long old, upd;
+        do {
+            old = chunk.get(i);
+            upd = (old & ~((long)MASK << shift)) | ((long)status << shift);
+        } while(!chunk.compareAndSet(i, old, upd));
+    }
+
+    private static int shift(long inChunk) {
+        return (int)(inChunk % PER_LONG) * BITS;
+    }
+
+    long horizon() {
+        return horizon.get();
+    }
+
+    /**
+     * 有事务结束后，把horizon推进到第一个活跃的事务
+     * 已经结束的事务状态不会再改变，并发推进时每次只前进一个事务
+     */
+    void advance(byte active) {
+        long h = horizon.get();
+        while(get(h) != active) {
+            if(horizon.compareAndSet(h, h + 1)) {
+                h ++;
+            } else {
+                h = horizon.get();
+            }
+        }
+    }
+}
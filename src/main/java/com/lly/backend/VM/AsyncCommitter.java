@@ -0,0 +1,43 @@
+package com.lly.backend.VM;
+
+import com.lly.backend.DM.DataManager;
+
+/**
+ * 异步提交
+ * 异步提交的事务写入提交日志后立即返回，不等待日志落盘
+ * 后台线程每隔interval毫秒把日志刷盘一次，崩溃时最多丢失这段时间内的提交
+ * 日志按顺序落盘，同步提交的事务等待自己的提交日志落盘时，之前异步提交的事务也一起落盘
+ */
+class AsyncCommitter implements Runnable {
+
+    private DataManager dm;
+    private long interval;    // 落盘间隔，毫秒
+
+    private Thread thread;
+
+    AsyncCommitter(DataManager dm, long interval) {
+        this.dm = dm;
+        this.interval = interval;
+    }
+
+    /**
+     * 版本管理器没有关闭的过程，后台线程随进程退出
+     */
+    void start() {
+        thread = new Thread(this, "async-committer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            dm.flushLog();
+        }
+    }
+}
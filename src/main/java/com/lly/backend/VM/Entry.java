@@ -6,7 +6,6 @@ import com.lly.backend.DM.dataItem.DataItem;
 import com.lly.backend.common.MySubArray;
 import com.lly.common.utils.Parser;
 
-import java.util.Arrays;
 
 /**
  * VM向上层抽象出entry
@@ -65,7 +64,7 @@ public class Entry {
         try {
             MySubArray sa = dataItem.data();
             byte[] data = new byte[sa.end - sa.start - OFFSET_DATA];
-            System.arraycopy(sa.raw, sa.start+OFFSET_DATA, data, 0, data.length);
+            sa.raw.get(sa.start+OFFSET_DATA, data);
             return data;
         } finally {
             dataItem.rUnLock();
@@ -76,7 +75,7 @@ public class Entry {
         dataItem.rLock();
         try {
             MySubArray sa = dataItem.data();
-            return Parser.getLong(Arrays.copyOfRange(sa.raw, sa.start+OFFSET_XMIN, sa.start+OFFSET_XMAX));
+            return sa.raw.getLong(sa.start+OFFSET_XMIN);
         } finally {
             dataItem.rUnLock();
         }
@@ -86,7 +85,7 @@ public class Entry {
         dataItem.rLock();
         try {
             MySubArray sa = dataItem.data();
-            return Parser.getLong(Arrays.copyOfRange(sa.raw, sa.start+OFFSET_XMAX, sa.start+OFFSET_DATA));
+            return sa.raw.getLong(sa.start+OFFSET_XMAX);
         } finally {
             dataItem.rUnLock();
         }
@@ -96,7 +95,7 @@ public class Entry {
         dataItem.before();
         try {
             MySubArray sa = dataItem.data();
-            System.arraycopy(Parser.long2Byte(xid), 0, sa.raw, sa.start+OFFSET_XMAX, 8);
+            sa.raw.putLong(sa.start+OFFSET_XMAX, xid);
         } finally {
             dataItem.after(xid);
         }
@@ -124,11 +124,14 @@ public class LockTable {
     public void remove(long xid) {
         lock.lock();
         try{
+            //没有获取过任何资源的事务不在x2u中
             List<Long> list = x2u.get(xid);
-            for(long uid: list) {
-                u2x.remove(uid);
-                //从等待队列中选择一个新的事务来占用uid
-                selectNewXID(uid);
+            if(list != null) {
+                for(long uid: list) {
+                    u2x.remove(uid);
+                    //从等待队列中选择一个新的事务来占用uid
+                    selectNewXID(uid);
+                }
             }
             x2u.remove(xid);
             xWaitU.remove(xid);
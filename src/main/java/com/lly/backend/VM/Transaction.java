@@ -17,6 +17,7 @@ public class Transaction {
     public Map<Long, Boolean> snapshot;
     public Exception err;
     public boolean autoAborted;
+    public boolean asyncCommit;
 
     public static Transaction newTransaction(long xid, int level, Map<Long, Transaction> active){
         Transaction t = new Transaction();
@@ -9,6 +9,8 @@ public interface VersionManager {
     boolean delete(long xid, long uid) throws Exception;
 
     long begin(int level);
+    // asyncCommit为true时，提交不等待日志和事务状态落盘
+    long begin(int level, boolean asyncCommit);
     void commit(long xid) throws Exception;
     void abort(long xid);
 
@@ -14,13 +14,15 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class VersionManagerImpl extends AbstractCache<Entry> implements VersionManager {
 
-
+    // 异步提交的事务最多等待多久落盘，毫秒，即崩溃时最多丢失的提交时间窗口
+    private static final long ASYNC_COMMIT_INTERVAL = 200;
 
     TransactionManager tm;
     DataManager dm;
     Map<Long, Transaction> activeTransaction;
     Lock lock;//activeTransaction的锁
     LockTable lockTable;
+    AsyncCommitter asyncCommitter;
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
         super(0);
@@ -30,6 +32,8 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         activeTransaction.put(TransactionManagerImpl.SUPER_XID, Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, 0, null));
         this.lock = new ReentrantLock();
         this.lockTable = new LockTable();
+        this.asyncCommitter = new AsyncCommitter(dm, ASYNC_COMMIT_INTERVAL);
+        asyncCommitter.start();
     }
 
 
@@ -174,11 +178,18 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public long begin(int level) {
+        return begin(level, false);
+    }
+
+    @Override
+    public long begin(int level, boolean asyncCommit) {
         lock.lock();
         try {
             //事务管理器生成事务id
             long xid = tm.begin();
-            activeTransaction.put(xid, Transaction.newTransaction(xid, level, activeTransaction));
+            Transaction t = Transaction.newTransaction(xid, level, activeTransaction);
+            t.asyncCommit = asyncCommit;
+            activeTransaction.put(xid, t);
             return xid;
         } finally {
             lock.unlock();
@@ -211,7 +222,13 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         lock.unlock();
 
         lockTable.remove(xid);
-        tm.commit(xid);
+        //写入提交日志后其他事务即可看到提交，读到它的修改的事务的提交日志在它之后，不会先于它落盘
+        long lsn = dm.logCommit(xid);
+        if(t.asyncCommit) {
+            return;
+        }
+        //提交日志落盘，事务提交完成，之前异步提交的事务一起落盘
+        dm.flushLog(lsn);
     }
 
     /**
@@ -239,7 +256,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         if(t.autoAborted) return;
 
         lockTable.remove(xid);
-        tm.abort(xid);
+        dm.logAbort(xid);
     }
 
     /**
@@ -3,30 +3,74 @@ package com.lly.backend.common;
 
 import com.lly.common.ErrorItem;
 
-import java.util.HashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * 未指定置换策略时，资源的引用计数归零即被驱逐；
+ * 指定置换策略后，引用计数归零的资源仍然留在缓存中，只有在缓存已满时才由置换策略选出牺牲者驱逐
+ *
+ * 缓存是并发的：不同键的查找之间不存在共享的锁，
+ * 同一个键同时未命中时只有一个线程从数据源获取，其余线程在该键的 future 上等待获取完成
+ *
+ * 缓存已满且没有可驱逐的资源时，获取者在公平锁的条件队列上排队等待其他资源被释放，
+ * 超过等待时限仍未腾出位置才抛出 CacheFullException
  */
 public abstract class AbstractCache<T> {
 
+    /**
+     * 缓存中的一个资源槽
+     * references 为 -1 表示该资源正在被驱逐，此时的获取者需要等待 removed 完成后重新获取
+     */
+    private static class Holder<T> {
+        final CompletableFuture<T> value = new CompletableFuture<>();    // 资源获取完成后完成
+        final CompletableFuture<Void> removed = new CompletableFuture<>();    // 资源写回并移出缓存后完成
+        final AtomicInteger references = new AtomicInteger(1);    // 引用计数
+    }
 
-    private HashMap<Long, T> cache;    // 缓存数据
-    private HashMap<Long, Integer> references;    // 引用计数
-    private HashMap<Long, Boolean> getting;        // 记录资源是否正在从数据源获取中（从数据源获取资源是一个相对费时的操作）
+    private ConcurrentHashMap<Long, Holder<T>> cache;    // 缓存数据，包括正在从数据源获取中的资源
 
     private int maxResource;    // 缓存的最大缓存资源数
-    private int count = 0;    // 缓存中元素的个数
-    private Lock lock;    // 用于保护缓存的锁
+    private AtomicInteger count;    // 缓存中元素的个数
+    private LRUKReplacer replacer;    // 置换策略，为null时引用计数归零即驱逐
+
+    private long admissionTimeout;    // 缓存已满时的最长等待时间，单位纳秒，为0时不等待
+    private ReentrantLock admissionLock;    // 公平锁，等待者按到达顺序获得腾出的位置
+    private Condition released;    // 有资源被释放时通知等待者
+    private AtomicInteger waiters;    // 正在排队等待的获取者个数
+    private volatile int maxWaiters;    // 排队等待的获取者个数的峰值
+    private AtomicLong waitCount;    // 发生等待的次数
+    private AtomicLong waitNanos;    // 等待的总时间
 
     public AbstractCache(int maxResource) {
-        this.cache = new HashMap<>();
-        this.references = new HashMap<>();
-        this.getting = new HashMap<>();
+        this(maxResource, null);
+    }
+
+    public AbstractCache(int maxResource, LRUKReplacer replacer) {
+        this(maxResource, replacer, 0);
+    }
+
+    public AbstractCache(int maxResource, LRUKReplacer replacer, long admissionTimeoutMillis) {
+        this.cache = new ConcurrentHashMap<>();
         this.maxResource = maxResource;
-        this.lock = new ReentrantLock();
+        this.count = new AtomicInteger(0);
+        this.replacer = replacer;
+        this.admissionTimeout = TimeUnit.MILLISECONDS.toNanos(admissionTimeoutMillis);
+        this.admissionLock = new ReentrantLock(true);
+        this.released = admissionLock.newCondition();
+        this.waiters = new AtomicInteger(0);
+        this.waitCount = new AtomicLong(0);
+        this.waitNanos = new AtomicLong(0);
     }
 
     /**
@@ -36,104 +80,352 @@ public abstract class AbstractCache<T> {
      * @throws Exception
      */
     protected T get(long key) throws Exception {
-        while(true){
-            lock.lock();//缓存加锁
-            // 请求的资源正在被其他线程获取，释放锁，等待1ms，继续while下一个循环
-            if(getting.containsKey(key)){
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        return get(key, admissionTimeout);
+    }
+
+    /**
+     * 获取资源，缓存已满时不等待，直接抛出 CacheFullException
+     * 有获取者在排队时也不会抢占腾出的位置
+     */
+    protected T tryGet(long key) throws Exception {
+        return get(key, 0);
+    }
+
+    private T get(long key, long timeout) throws Exception {
+        while(true) {
+            Holder<T> holder = cache.get(key);
+            if(holder != null) {
+                // 资源在缓存中或正在被获取，引用计数加1后等待获取完成
+                if(!pinExisting(key, holder)) {
                     continue;
                 }
+                return await(holder);
+            }
+
+            holder = new Holder<>();
+            if(cache.putIfAbsent(key, holder) != null) {
+                // 其他线程抢先开始获取该资源
                 continue;
             }
-            // 资源在缓存中，直接返回，引用计数加1
-            if(cache.containsKey(key)){
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return obj;
+            return load(key, holder, timeout);
+        }
+    }
+
+    /**
+     * 异步获取资源，引用计数在返回前就已经加1
+     * 资源不在缓存中时由executor从数据源获取，同一个资源正在被获取时共享同一次获取
+     * @return 获取完成后完成的future，获取失败时异常完成
+     */
+    protected CompletableFuture<T> getAsync(long key, Executor executor) {
+        while(true) {
+            Holder<T> holder = cache.get(key);
+            if(holder != null) {
+                if(!pinExisting(key, holder)) {
+                    continue;
+                }
+                return holder.value.copy();
+            }
+
+            holder = new Holder<>();
+            if(cache.putIfAbsent(key, holder) != null) {
+                continue;
             }
-            else {
-                //缓存已满，抛出异常
-                if(maxResource > 0 && count == maxResource) {
-                    lock.unlock();
-                    throw ErrorItem.CacheFullException;
+            Holder<T> loading = holder;
+            executor.execute(() -> {
+                try {
+                    load(key, loading, admissionTimeout);
+                } catch (Exception e) {
+                    //异常已经通过future传给获取者
                 }
-                //准备去获取资源
-                count ++;
-                getting.put(key, true);
-                lock.unlock();
-                break;
+            });
+            return loading.value.copy();
+        }
+    }
+
+    /**
+     * 对已在缓存中或正在被获取的资源引用计数加1
+     * 每次命中都记录访问，一直被引用的热点资源（如根节点、第一页）同样积累访问历史
+     * 记录访问只修改该资源自己的访问记录，不加锁
+     * @return 资源正在被驱逐时等待驱逐完成后返回false，由调用者重新获取
+     */
+    private boolean pinExisting(long key, Holder<T> holder) {
+        int ref = pin(holder);
+        if(ref < 0) {
+            // 资源正在被驱逐，等待写回完成后重新获取
+            holder.removed.join();
+            return false;
+        }
+        if(replacer != null) {
+            replacer.recordAccess(key);
+            if(ref == 0) {
+                replacer.setEvictable(key, false);
             }
         }
+        return true;
+    }
+
+    /**
+     * 为新放入的资源槽腾出位置并从数据源获取资源
+     */
+    private T load(long key, Holder<T> holder, long timeout) throws Exception {
+        //缓存已满，尝试驱逐一个未被引用的资源，没有可驱逐的资源则等待，超时后抛出异常
+        count.incrementAndGet();
+        if(maxResource > 0 && !admit(timeout)) {
+            abandon(key, holder, ErrorItem.CacheFullException);
+            throw ErrorItem.CacheFullException;
+        }
         //开始获取资源
-        T obj = null;
+        T obj;
         try {
             obj = getForCache(key);
         } catch (Exception e) {
-            //获取资源失败，取消获取，抛出异常
-            lock.lock();
-            count --;
-            getting.remove(key);
-            lock.unlock();
+            //获取资源失败，取消获取，等待中的线程也会得到这个异常
+            abandon(key, holder, e);
             throw e;
         }
-        //获取资源成功，更新缓存
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
+        holder.value.complete(obj);
+        if(replacer != null) {
+            replacer.recordAccess(key);
+        }
         return obj;
     }
+
+    /**
+     * 为新资源腾出位置
+     * 没有排队的获取者时直接尝试驱逐，否则排到队尾，每当有资源被释放时由队首的等待者尝试驱逐
+     * @return 是否腾出了位置
+     */
+    private boolean admit(long timeout) {
+        if(count.get() <= maxResource) {
+            return true;
+        }
+        if(waiters.get() == 0 && evictOne()) {
+            return true;
+        }
+        if(timeout <= 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        admissionLock.lock();
+        int depth = waiters.incrementAndGet();
+        if(depth > maxWaiters) {
+            maxWaiters = depth;
+        }
+        try {
+            long remaining = timeout;
+            while(count.get() > maxResource && !evictOne()) {
+                if(remaining <= 0) {
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiters.decrementAndGet();
+            waitCount.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - start);
+            // 可能同时有多个资源被释放，交给下一个等待者继续尝试
+            if(waiters.get() > 0) {
+                released.signal();
+            }
+            admissionLock.unlock();
+        }
+    }
+
+    /**
+     * 有资源可以被驱逐或已被移出缓存，唤醒队首的等待者
+     */
+    private void signalWaiters() {
+        if(waiters.get() == 0) {
+            return;
+        }
+        admissionLock.lock();
+        try {
+            released.signal();
+        } finally {
+            admissionLock.unlock();
+        }
+    }
+
+    /**
+     * 引用计数加1，资源正在被驱逐时不修改
+     * @return 加1之前的引用计数，-1表示资源正在被驱逐
+     */
+    private int pin(Holder<T> holder) {
+        while(true) {
+            int ref = holder.references.get();
+            if(ref < 0) {
+                return ref;
+            }
+            if(holder.references.compareAndSet(ref, ref + 1)) {
+                return ref;
+            }
+        }
+    }
+
+    /**
+     * 等待其他线程获取资源完成
+     */
+    private T await(Holder<T> holder) throws Exception {
+        try {
+            return holder.value.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * 放弃获取资源，从缓存中移除资源槽
+     */
+    private void abandon(long key, Holder<T> holder, Exception e) {
+        cache.remove(key, holder);
+        count.decrementAndGet();
+        holder.value.completeExceptionally(e);
+        holder.removed.complete(null);
+        signalWaiters();
+    }
+
+    /**
+     * 由置换策略选出一个引用计数为0的资源，写回并移出缓存
+     * 置换策略只是提示，资源能否被驱逐以引用计数从0到-1的CAS为准
+     * @return 是否驱逐成功
+     */
+    private boolean evictOne() {
+        if(replacer == null) {
+            return false;
+        }
+        while(true) {
+            long victim = replacer.evict();
+            if(victim < 0) {
+                return false;
+            }
+            Holder<T> holder = cache.get(victim);
+            if(holder != null && tryRemove(victim, holder)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 尝试将引用计数为0的资源写回并移出缓存
+     */
+    private boolean tryRemove(long key, Holder<T> holder) {
+        if(!holder.references.compareAndSet(0, -1)) {
+            return false;
+        }
+        try {
+            releaseForCache(holder.value.join());
+        } finally {
+            cache.remove(key, holder);
+            count.decrementAndGet();
+            holder.removed.complete(null);
+        }
+        return true;
+    }
+
     /**
      * 释放一个缓存资源的引用
      * @param key 资源的键
      */
     protected void release(long key) {
-        lock.lock();
-        try{
-            //引用计数减1
-            int ref = references.get(key) - 1;
-            //引用计数为0，释放资源
-            if(ref == 0){
-                //写回资源
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                //删除缓存相关数据
-                cache.remove(key);
-                references.remove(key);
-                count --;
-            }
-            else{
-                //引用计数减1
-                references.put(key, ref);
-            }
+        Holder<T> holder = cache.get(key);
+        //引用计数减1
+        int ref = holder.references.decrementAndGet();
+        if(ref != 0) {
+            return;
+        }
+        if(replacer != null) {
+            //资源留在缓存中，交给置换策略决定何时驱逐
+            replacer.setEvictable(key, true);
+        } else {
+            //引用计数为0，写回并释放资源，期间被重新引用则放弃
+            tryRemove(key, holder);
+        }
+        signalWaiters();
+    }
+
+    /**
+     * 驱逐一个指定的资源，资源正在被引用时放弃
+     * @return 是否驱逐成功
+     */
+    protected boolean evict(long key) {
+        Holder<T> holder = cache.get(key);
+        if(holder == null || !holder.value.isDone() || !tryRemove(key, holder)) {
+            return false;
         }
-        finally {
-            lock.unlock();
+        if(replacer != null) {
+            replacer.remove(key);
+        }
+        signalWaiters();
+        return true;
+    }
+
+    /**
+     * 缓存中的资源，有置换策略时按热度从高到低排列
+     */
+    protected List<Long> residentKeys() {
+        if(replacer == null) {
+            return new ArrayList<>(cache.keySet());
         }
+        List<Long> keys = replacer.keysByHotness();
+        keys.removeIf(key -> !cache.containsKey(key));
+        return keys;
+    }
+
+    /**
+     * 资源是否在缓存中或正在被获取
+     */
+    protected boolean isCached(long key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * 当前排队等待的获取者个数
+     */
+    protected int getWaiters() {
+        return waiters.get();
+    }
+
+    /**
+     * 排队等待的获取者个数的峰值
+     */
+    protected int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    /**
+     * 发生等待的次数
+     */
+    protected long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * 等待的总时间，单位毫秒
+     */
+    protected long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
     }
 
     /**
      * 关闭缓存，写回所有资源
      */
     protected void close() {
-        lock.lock();
-        try{
-            for(long key: cache.keySet()){
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+        for(long key: new ArrayList<>(cache.keySet())) {
+            Holder<T> holder = cache.remove(key);
+            if(holder == null || !holder.value.isDone() || holder.value.isCompletedExceptionally()) {
+                continue;
+            }
+            releaseForCache(holder.value.join());
+            holder.removed.complete(null);
+            if(replacer != null) {
+                replacer.remove(key);
             }
         }
-        finally {
-            lock.unlock();
-        }
+        count.set(0);
     }
 
     /**
@@ -0,0 +1,219 @@
+package com.lly.backend.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU-K 置换策略
+ * 记录每个资源最近 K 次访问的时间戳，驱逐时选择后向 K 距离最大的可驱逐资源：
+ * 1. 访问次数不足 K 次的资源后向 K 距离视为无穷大，优先驱逐，其中最早被访问的先驱逐
+ * 2. 访问次数达到 K 次的资源，倒数第 K 次访问越早越先驱逐
+ * 只被访问过一次的页面（如一次性扫描）会先于热点页面被驱逐
+ *
+ * 记录访问和设置是否可驱逐都不加锁，只修改资源自己的访问记录，不同资源的命中之间没有共享的锁
+ * 排序只在驱逐时加锁进行：有序集合按资源放入时的访问记录快照排序，访问只会让资源变热，
+ * 所以快照过期的资源只会排得比实际靠前，驱逐时取出的资源快照过期则按最新的访问记录重新放入
+ */
+public class LRUKReplacer {
+
+    private static class Node {
+        final long key;
+        final long id;    // 同一个键先后的访问记录互不相等
+        final AtomicLongArray history;    // 最近 K 次访问的时间戳，环形存储
+        final AtomicLong accesses = new AtomicLong();    // 访问的总次数，下一次写入 history 的位置由它决定
+        volatile boolean evictable;
+        final AtomicBoolean tracked = new AtomicBoolean(true);    // 在有序集合或待放入的队列中
+
+        // 排序使用的快照，只在不在有序集合中时更新，由lock保护
+        long sortedAccesses;
+        boolean full;    // 访问次数是否达到 K 次
+        long kth;    // 访问次数不足 K 次时为最早一次访问，否则为倒数第 K 次访问
+
+        Node(long key, long id, int k) {
+            this.key = key;
+            this.id = id;
+            this.history = new AtomicLongArray(k);
+        }
+
+        // 同一个资源的并发访问可能让记录相差一次，置换策略只是提示，不影响正确性
+        void access() {
+            long n = accesses.getAndIncrement();
+            history.set((int)(n % history.length()), System.nanoTime());
+        }
+
+        void snapshot() {
+            int k = history.length();
+            sortedAccesses = accesses.get();
+            full = sortedAccesses >= k;
+            kth = history.get(full ? (int)(sortedAccesses % k) : 0);
+        }
+
+        boolean stale() {
+            return accesses.get() != sortedAccesses;
+        }
+    }
+
+    private final int k;
+    private ConcurrentHashMap<Long, Node> nodes;
+    private Comparator<Node> order;    // 驱逐优先级，越靠前越先被驱逐
+    private TreeSet<Node> sorted;    // 按快照排序的资源，包括已经不可驱逐或已被移除的，驱逐时跳过，由lock保护
+    private ConcurrentLinkedQueue<Node> pending;    // 新建的访问记录和重新变为可驱逐的资源，驱逐时放入有序集合
+    private AtomicLong ids;
+    private Lock lock;    // 只在驱逐时持有
+
+    public LRUKReplacer(int k) {
+        this.k = k;
+        this.nodes = new ConcurrentHashMap<>();
+        this.order = (a, b) -> {
+            if(a.full != b.full) {
+                return a.full ? 1 : -1;
+            }
+            int c = Long.compare(a.kth, b.kth);
+            if(c == 0) {
+                c = Long.compare(a.key, b.key);
+            }
+            return c != 0 ? c : Long.compare(a.id, b.id);
+        };
+        this.sorted = new TreeSet<>(order);
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.ids = new AtomicLong();
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * 记录一次对资源的访问
+     */
+    public void recordAccess(long key) {
+        Node node = nodes.get(key);
+        if(node == null) {
+            node = track(key);
+        }
+        node.access();
+    }
+
+    /**
+     * 新建资源的访问记录，只在资源被读入缓存时发生，等待下一次驱逐时放入有序集合
+     */
+    private Node track(long key) {
+        Node fresh = new Node(key, ids.incrementAndGet(), k);
+        Node node = nodes.putIfAbsent(key, fresh);
+        if(node != null) {
+            return node;
+        }
+        pending.add(fresh);
+        return fresh;
+    }
+
+    /**
+     * 设置资源是否可以被驱逐，引用计数为0的资源才可以被驱逐
+     * 缓存是并发的，资源的访问记录可能已经被一次失败的驱逐移除，此时重新建立访问记录
+     * 被引用时从有序集合中移出的资源，重新变为可驱逐时放回
+     */
+    public void setEvictable(long key, boolean evictable) {
+        Node node = nodes.get(key);
+        if(node == null) {
+            if(!evictable) {
+                return;
+            }
+            node = track(key);
+            if(node.accesses.get() == 0) {
+                node.access();
+            }
+        }
+        node.evictable = evictable;
+        if(evictable && !node.tracked.get() && node.tracked.compareAndSet(false, true)) {
+            pending.add(node);
+        }
+    }
+
+    /**
+     * 选出一个牺牲者并移除其访问记录
+     * @return 被驱逐资源的键，没有可驱逐的资源时返回-1
+     */
+    public long evict() {
+        lock.lock();
+        try {
+            Node node;
+            while((node = pending.poll()) != null) {
+                node.snapshot();
+                sorted.add(node);
+            }
+            while((node = sorted.pollFirst()) != null) {
+                if(nodes.get(node.key) != node) {
+                    continue;
+                }
+                if(node.stale()) {
+                    // 放入之后又被访问过，按最新的访问记录重新排序
+                    node.snapshot();
+                    sorted.add(node);
+                    continue;
+                }
+                if(!node.evictable) {
+                    node.tracked.set(false);
+                    // 清除标记之前可能已经重新变为可驱逐，此时由这里放回
+                    if(node.evictable && node.tracked.compareAndSet(false, true)) {
+                        sorted.add(node);
+                    }
+                    continue;
+                }
+                nodes.remove(node.key, node);
+                return node.key;
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除资源的访问记录，有序集合中的记录在驱逐时跳过
+     */
+    public void remove(long key) {
+        nodes.remove(key);
+    }
+
+    /**
+     * 所有有访问记录的资源，按热度从高到低排列，即驱逐优先级的逆序
+     * 按当前的访问记录排序，不修改有序集合使用的快照
+     */
+    public List<Long> keysByHotness() {
+        List<Node> all = new ArrayList<>();
+        for(Node node : nodes.values()) {
+            Node copy = new Node(node.key, node.id, k);
+            copy.accesses.set(node.accesses.get());
+            for(int i = 0; i < k; i ++) {
+                copy.history.set(i, node.history.get(i));
+            }
+            copy.snapshot();
+            all.add(copy);
+        }
+        all.sort(order.reversed());
+        List<Long> keys = new ArrayList<>(all.size());
+        for(Node node : all) {
+            keys.add(node.key);
+        }
+        return keys;
+    }
+
+    /**
+     * 可驱逐资源的个数
+     */
+    public int size() {
+        int size = 0;
+        for(Node node : nodes.values()) {
+            if(node.evictable) {
+                size ++;
+            }
+        }
+        return size;
+    }
+}
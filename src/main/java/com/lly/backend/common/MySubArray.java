@@ -1,13 +1,29 @@
 package com.lly.backend.common;
 
+import java.nio.ByteBuffer;
+
+/**
+ * 缓冲区中[start, end)的一段，数据项直接引用页框，页框可能在堆外，只能按绝对位置读写
+ */
 public class MySubArray {
-    public byte[] raw;
+    public ByteBuffer raw;
     public int start;
     public int end;
 
-    public MySubArray(byte[] raw, int start, int end) {
+    public MySubArray(ByteBuffer raw, int start, int end) {
         this.raw = raw;
         this.start = start;
         this.end = end;
     }
+
+    public MySubArray(byte[] raw, int start, int end) {
+        this(ByteBuffer.wrap(raw), start, end);
+    }
+
+    // 以拷贝的形式返回[start, end)的内容
+    public byte[] copy() {
+        byte[] data = new byte[end - start];
+        raw.get(start, data);
+        return data;
+    }
 }
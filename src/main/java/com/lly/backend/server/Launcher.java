@@ -1,6 +1,7 @@
 package com.lly.backend.server;
 
 import com.lly.backend.DM.DataManager;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
 import com.lly.backend.TBM.TableManager;
 import com.lly.backend.TM.TransactionManager;
 import com.lly.backend.VM.VersionManagerImpl;
@@ -21,17 +22,29 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("mmap", false, "-mmap");
+        options.addOption("direct", false, "-direct");
+        options.addOption("writerInterval", true, "-writerInterval 1000");
+        options.addOption("writerBatch", true, "-writerBatch 64");
+        options.addOption("dirtyHighWater", true, "-dirtyHighWater 50");
+        options.addOption("prefetch", true, "-prefetch 8");
+        options.addOption("admissionTimeout", true, "-admissionTimeout 5000");
+        options.addOption("extent", true, "-extent 1MB");
+        options.addOption("pageSize", true, "-pageSize 8KB");
+        options.addOption("scanRing", true, "-scanRing 32");
+        options.addOption("noWarmUp", false, "-noWarmUp");
+        options.addOption("checkpointInterval", true, "-checkpointInterval 30000");
 
         CommandLineParser cmdParser = new DefaultParser();
         CommandLine cmd = cmdParser.parse(options, args);
 
         if(cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")), parseConfig(cmd));
             System.out.println("server started...");
             return;
         }
         if(cmd.hasOption("create")) {
-            createDB(cmd.getOptionValue("create"));
+            createDB(cmd.getOptionValue("create"), parseConfig(cmd));
             System.out.println("Created DB at " + cmd.getOptionValue("create"));
             return;
         }
@@ -62,20 +75,59 @@ public class Launcher {
         return DEFALUT_MEM;
     }
 
-    private static void createDB(String path){
+    /**
+     * 解析页面缓存的启动配置
+     */
+    private static PageCacheConfig parseConfig(CommandLine cmd) {
+        PageCacheConfig config = new PageCacheConfig();
+        config.mmap = cmd.hasOption("mmap");
+        config.direct = cmd.hasOption("direct");
+        config.warmUp = !cmd.hasOption("noWarmUp");
+        if(cmd.hasOption("writerInterval")) {
+            config.writerInterval = Long.parseLong(cmd.getOptionValue("writerInterval"));
+        }
+        if(cmd.hasOption("writerBatch")) {
+            config.writerBatchSize = Integer.parseInt(cmd.getOptionValue("writerBatch"));
+        }
+        if(cmd.hasOption("dirtyHighWater")) {
+            config.dirtyHighWaterPercent = Integer.parseInt(cmd.getOptionValue("dirtyHighWater"));
+        }
+        if(cmd.hasOption("prefetch")) {
+            config.prefetchPages = Integer.parseInt(cmd.getOptionValue("prefetch"));
+        }
+        if(cmd.hasOption("admissionTimeout")) {
+            config.admissionTimeout = Long.parseLong(cmd.getOptionValue("admissionTimeout"));
+        }
+        if(cmd.hasOption("extent")) {
+            config.extentSize = parseMem(cmd.getOptionValue("extent"));
+        }
+        if(cmd.hasOption("pageSize")) {
+            config.pageSize = (int)parseMem(cmd.getOptionValue("pageSize"));
+        }
+        if(cmd.hasOption("scanRing")) {
+            config.scanRingPages = Integer.parseInt(cmd.getOptionValue("scanRing"));
+        }
+        if(cmd.hasOption("checkpointInterval")) {
+            config.checkpointInterval = Long.parseLong(cmd.getOptionValue("checkpointInterval"));
+        }
+        return config;
+    }
+
+    private static void createDB(String path, PageCacheConfig config){
         TransactionManager tm = TransactionManager.create(path);
-        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm);
+        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm, config);
         VersionManagerImpl vm = new VersionManagerImpl(tm, dm);
         TableManager.create(path, vm, dm);
 
-        tm.close();
+        // 关闭时的检查点把事务状态写入XID文件，先关闭DataManager
         dm.close();
+        tm.close();
     }
 
 
-    private static void openDB(String path, long mem){
+    private static void openDB(String path, long mem, PageCacheConfig config){
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
+        DataManager dm = DataManager.open(path, mem, tm, config);
         VersionManagerImpl vm = new VersionManagerImpl(tm, dm);
         TableManager tbm = TableManager.open(path, vm, dm);
 
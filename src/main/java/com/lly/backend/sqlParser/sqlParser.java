@@ -366,17 +366,30 @@ public class sqlParser {
         return new Commit();
     }
 
+    /*
+     * begin [isolation level (read committed | repeatable read)] [async commit]
+     */
     private static Begin parseBegin(Tokenizer tokenizer) throws Exception {
-        String isolation = tokenizer.peek();
         Begin begin = new Begin();
-        if("".equals(isolation)) {
-            return begin;
+        if("isolation".equals(tokenizer.peek())) {
+            tokenizer.pop();
+            parseIsolation(tokenizer, begin);
+        }
+        if("async".equals(tokenizer.peek())) {
+            tokenizer.pop();
+            if(!"commit".equals(tokenizer.peek())) {
+                throw ErrorItem.InvalidCommandException;
+            }
+            tokenizer.pop();
+            begin.asyncCommit = true;
         }
-        if(!"isolation".equals(isolation)) {
+        if(!"".equals(tokenizer.peek())) {
             throw ErrorItem.InvalidCommandException;
         }
+        return begin;
+    }
 
-        tokenizer.pop();
+    private static void parseIsolation(Tokenizer tokenizer, Begin begin) throws Exception {
         String level = tokenizer.peek();
         if(!"level".equals(level)) {
             throw ErrorItem.InvalidCommandException;
@@ -389,10 +402,6 @@ public class sqlParser {
             String tmp2 = tokenizer.peek();
             if("committed".equals(tmp2)) {
                 tokenizer.pop();
-                if(!"".equals(tokenizer.peek())) {
-                    throw ErrorItem.InvalidCommandException;
-                }
-                return begin;
             } else {
                 throw ErrorItem.InvalidCommandException;
             }
@@ -402,10 +411,6 @@ public class sqlParser {
             if("read".equals(tmp2)) {
                 begin.isRepeatableRead = true;
                 tokenizer.pop();
-                if(!"".equals(tokenizer.peek())) {
-                    throw ErrorItem.InvalidCommandException;
-                }
-                return begin;
             } else {
                 throw ErrorItem.InvalidCommandException;
             }
@@ -2,4 +2,6 @@ package com.lly.backend.sqlParser.statement;
 
 public class Begin {
     public boolean isRepeatableRead;
+    // 提交时不等待日志落盘，崩溃时可能丢失最近的提交
+    public boolean asyncCommit;
 }
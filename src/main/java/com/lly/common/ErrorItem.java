@@ -10,6 +10,9 @@ public class ErrorItem {
     // dm
     public static final Exception BadLogFileException = new RuntimeException("Bad log file!");
     public static final Exception MemTooSmallException = new RuntimeException("Memory too small!");
+    public static final Exception InvalidPageSizeException = new RuntimeException("Invalid page size!");
+    public static final Exception BadDBFormatException = new RuntimeException("Unsupported database file format!");
+    public static final Exception UncleanOldDBException = new RuntimeException("Database created by an earlier version was not closed cleanly! Open and close it once with that version to recover it, then open it again.");
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
 
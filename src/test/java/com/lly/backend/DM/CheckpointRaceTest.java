@@ -0,0 +1,251 @@
+package com.lly.backend.DM;
+
+import com.lly.backend.DM.dataItem.DataItem;
+import com.lly.backend.DM.logger.Logger;
+import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
+import com.lly.backend.TM.TransactionManager;
+import com.lly.backend.TM.TransactionManagerImpl;
+import com.lly.backend.common.MySubArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CheckpointRaceTest {
+
+    private static final long MEMORY = 64L * PageCache.DEFAULT_PAGE_SIZE;
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("checkpoint-race").toFile();
+        path = new File(dir, "db").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if(files != null) {
+            for(File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    /**
+     * 写入第一条日志后，在另一个线程中做检查点，等它结束或者等待超时后才返回
+     */
+    static class CheckpointAfterLog implements Logger {
+        Logger lg;
+        DataManagerImpl dm;
+        boolean armed;
+        Thread checkpoint;
+
+        CheckpointAfterLog(Logger lg) {
+            this.lg = lg;
+        }
+
+        @Override
+        public long log(byte[] data) {
+            long lsn = lg.log(data);
+            if(armed) {
+                armed = false;
+                checkpoint = new Thread(() -> dm.checkpoint());
+                checkpoint.start();
+                try {
+                    checkpoint.join(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return lsn;
+        }
+
+        @Override
+        public void flush(long lsn) {
+            lg.flush(lsn);
+        }
+
+        @Override
+        public long lastLSN() {
+            return lg.lastLSN();
+        }
+
+        @Override
+        public long endLSN() {
+            return lg.endLSN();
+        }
+
+        @Override
+        public void truncate(long x) throws Exception {
+            lg.truncate(x);
+        }
+
+        @Override
+        public void removeBefore(long lsn) {
+            lg.removeBefore(lsn);
+        }
+
+        @Override
+        public byte[] next() {
+            return lg.next();
+        }
+
+        @Override
+        public long lastStart() {
+            return lg.lastStart();
+        }
+
+        @Override
+        public byte[] read(long start) {
+            return lg.read(start);
+        }
+
+        @Override
+        public void rewind() {
+            lg.rewind();
+        }
+
+        @Override
+        public void close() {
+            lg.close();
+        }
+    }
+
+    /**
+     * 后台写线程写回页面、日志已经落盘而页面还没有写入文件时，在另一个线程中做检查点
+     * 检查点完成时复制数据库文件作为崩溃时的镜像，等它结束或者等待超时后写线程才继续写入页面
+     */
+    static class CheckpointDuringWriteBack extends CheckpointAfterLog {
+        AtomicBoolean armedFlush = new AtomicBoolean();
+        volatile Thread checkpointThread;
+        File image;
+
+        CheckpointDuringWriteBack(Logger lg, File image) {
+            super(lg);
+            this.image = image;
+        }
+
+        @Override
+        public void flush(long lsn) {
+            lg.flush(lsn);
+            if(Thread.currentThread().getName().equals("page-writer") && armedFlush.compareAndSet(true, false)) {
+                Thread t = new Thread(() -> {
+                    dm.checkpoint();
+                    copyFiles(image);
+                });
+                t.start();
+                checkpointThread = t;
+                try {
+                    t.join(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void copyFiles(File dst) {
+            dst.mkdir();
+            try {
+                for(File f : dst.getParentFile().listFiles()) {
+                    if(f.isFile()) {
+                        Files.copy(f.toPath(), new File(dst, f.getName()).toPath());
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * 检查点与后台写回同一个页面并发：页面已经从脏页表取出、还没有写入文件时，
+     * 检查点不能跳过它，必须等它写入并force之后才能写检查点日志，否则恢复时跳过的日志没有作用到文件上
+     */
+    @Test
+    public void testCheckpointDuringWriteBack() throws Exception {
+        PageCacheConfig config = new PageCacheConfig();
+        config.warmUp = false;
+        config.writerInterval = 20;
+        TransactionManager tm = TransactionManager.create(path);
+        PageCache pc = PageCache.create(path, MEMORY, config);
+        File image = new File(dir, "image");
+        CheckpointDuringWriteBack lg = new CheckpointDuringWriteBack(Logger.create(path), image);
+        pc.setLogger(lg);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        lg.dm = dm;
+        dm.initPageOne();
+
+        dm.insert(TransactionManagerImpl.SUPER_XID, "first".getBytes());
+        dm.checkpoint();
+
+        byte[] data = "written back while checkpointing".getBytes();
+        lg.armedFlush.set(true);
+        long uid = dm.insert(TransactionManagerImpl.SUPER_XID, data);
+        while(lg.checkpointThread == null) {
+            Thread.sleep(10);
+        }
+        lg.checkpointThread.join();
+
+        // 从检查点完成时的镜像恢复
+        String imagePath = new File(image, "db").getPath();
+        TransactionManager tm2 = TransactionManager.open(imagePath);
+        DataManager dm2 = DataManager.open(imagePath, MEMORY, tm2, config);
+        DataItem di = dm2.read(uid);
+        MySubArray raw = di.data();
+        assertArrayEquals(data, raw.copy());
+        di.release();
+        dm2.close();
+        tm2.close();
+    }
+
+    /**
+     * 插入的日志已经写入、页面还没有修改时做检查点，崩溃后插入的数据不能丢失
+     */
+    @Test
+    public void testCheckpointBetweenLogAndApply() throws Exception {
+        PageCacheConfig config = new PageCacheConfig();
+        config.warmUp = false;
+        config.writerInterval = 1000000;
+        TransactionManager tm = TransactionManager.create(path);
+        PageCache pc = PageCache.create(path, MEMORY, config);
+        CheckpointAfterLog lg = new CheckpointAfterLog(Logger.create(path));
+        pc.setLogger(lg);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        lg.dm = dm;
+        dm.initPageOne();
+
+        // 新建的页面本身是脏页，先插入一次并做检查点，让页面变干净
+        dm.insert(TransactionManagerImpl.SUPER_XID, "first".getBytes());
+        dm.checkpoint();
+
+        byte[] data = "inserted while checkpointing".getBytes();
+        lg.armed = true;
+        long uid = dm.insert(TransactionManagerImpl.SUPER_XID, data);
+        lg.checkpoint.join();
+        dm.flushLog();
+
+        // 不关闭旧的DataManager，相当于崩溃，后台写线程不会再写回页面
+        TransactionManager tm2 = TransactionManager.open(path);
+        DataManager dm2 = DataManager.open(path, MEMORY, tm2, config);
+        DataItem di = dm2.read(uid);
+        MySubArray raw = di.data();
+        assertArrayEquals(data, raw.copy());
+        di.release();
+        dm2.close();
+        tm2.close();
+    }
+}
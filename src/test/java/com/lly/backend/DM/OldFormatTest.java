@@ -0,0 +1,101 @@
+package com.lly.backend.DM;
+
+import com.lly.backend.DM.dataItem.DataItem;
+import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
+import com.lly.backend.TM.TransactionManager;
+import com.lly.backend.common.MySubArray;
+import com.lly.common.utils.Parser;
+import com.lly.common.utils.Types;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OldFormatTest {
+
+    private static final int PAGE_SIZE = PageCache.DEFAULT_PAGE_SIZE;
+    private static final long MEMORY = 64L * PAGE_SIZE;
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("old-format").toFile();
+        path = new File(dir, "db").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static byte[] data(MySubArray raw) {
+        return raw.copy();
+    }
+
+    /*
+     * 按早期版本的格式写一个正常关闭的数据库：第一页头部全为0，校验码一致，普通页没有PageLSN，日志是单个文件
+     */
+    private void writeOldDatabase(byte[] item) throws Exception {
+        byte[] db = new byte[2 * PAGE_SIZE];
+        byte[] raw = DataItem.wrapDataItemRaw(item);
+        System.arraycopy(Parser.short2Byte((short)(2 + raw.length)), 0, db, PAGE_SIZE, 2);
+        System.arraycopy(raw, 0, db, PAGE_SIZE + 2, raw.length);
+        Files.write(new File(path + ".db").toPath(), db);
+        Files.write(new File(path + ".log").toPath(), new byte[]{0, 0, 0, 0});
+    }
+
+    @Test
+    public void testOpenVersionZeroDatabase() throws Exception {
+        byte[] old = "written by an earlier version".getBytes();
+        writeOldDatabase(old);
+        TransactionManager tm = TransactionManager.create(path);
+
+        PageCacheConfig config = new PageCacheConfig();
+        config.warmUp = false;
+        DataManager dm = DataManager.open(path, MEMORY, tm, config);
+        assertEquals(PAGE_SIZE, dm.getPageSize());
+        assertTrue(new File(path + ".log.v0").exists());
+
+        long oldUid = Types.addressToUid(2, (short)2);
+        DataItem di = dm.read(oldUid);
+        assertArrayEquals(old, data(di.data()));
+        di.release();
+
+        // 新插入的数据按旧布局紧接在原有数据之后
+        byte[] fresh = "written after the upgrade".getBytes();
+        long xid = tm.begin();
+        long uid = dm.insert(xid, fresh);
+        dm.logCommit(xid);
+        assertEquals(Types.addressToUid(2, (short)(2 + DataItem.wrapDataItemRaw(old).length)), uid);
+        dm.close();
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, MEMORY, tm, config);
+        di = dm.read(oldUid);
+        assertArrayEquals(old, data(di.data()));
+        di.release();
+        di = dm.read(uid);
+        assertArrayEquals(fresh, data(di.data()));
+        di.release();
+        dm.close();
+        tm.close();
+
+        // 文件仍是格式版本0
+        byte[] header = Arrays.copyOfRange(Files.readAllBytes(new File(path + ".db").toPath()), 0, 8);
+        assertArrayEquals(new byte[8], header);
+    }
+}
@@ -0,0 +1,199 @@
+package com.lly.backend.DM;
+
+import com.lly.backend.DM.dataItem.DataItem;
+import com.lly.backend.DM.logger.Logger;
+import com.lly.backend.DM.page.PageOne;
+import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
+import com.lly.backend.DM.pageCache.PageCacheImpl;
+import com.lly.backend.TM.TransactionManager;
+import com.lly.backend.TM.TransactionManagerImpl;
+import com.lly.backend.common.MySubArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecoverTest {
+
+    private static final long MEMORY = 1024L * PageCache.DEFAULT_PAGE_SIZE;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("recover").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if(files != null) {
+            for(File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static PageCacheConfig config() {
+        PageCacheConfig config = new PageCacheConfig();
+        config.warmUp = false;
+        config.writerInterval = 1000000;
+        config.checkpointInterval = 0;
+        return config;
+    }
+
+    private static void update(DataItem di, long xid, Random random) {
+        di.before();
+        MySubArray data = di.data();
+        for(int i = data.start; i < data.end; i += 1 + random.nextInt(8)) {
+            data.raw.put(i, (byte)random.nextInt());
+        }
+        di.after(xid);
+    }
+
+    /*
+     * 写出一个崩溃时的数据库：检查点前后都有提交、取消和活跃事务的插入和修改，没有关闭就复制文件
+     */
+    private File crashedDatabase() throws Exception {
+        File src = new File(dir, "src");
+        src.mkdir();
+        String path = new File(src, "db").getPath();
+        TransactionManager tm = TransactionManager.create(path);
+        DataManagerImpl dm = (DataManagerImpl)DataManager.create(path, MEMORY, tm, config());
+
+        Random random = new Random(19);
+        List<Long> uids = new ArrayList<>();
+        // 活跃事务插入或修改过的数据项，相当于事务持有的写锁，其他事务不能修改
+        Map<Long, Long> owners = new HashMap<>();
+        for(int round = 0; round < 4; round ++) {
+            for(int t = 0; t < 16; t ++) {
+                long xid = tm.begin();
+                List<Long> touched = new ArrayList<>();
+                for(int i = 0; i < 20; i ++) {
+                    byte[] data = new byte[20 + random.nextInt(200)];
+                    random.nextBytes(data);
+                    long uid = dm.insert(xid, data);
+                    uids.add(uid);
+                    touched.add(uid);
+                }
+                for(int i = 0; i < 20; i ++) {
+                    long uid = uids.get(random.nextInt(uids.size()));
+                    if(owners.getOrDefault(uid, xid) != xid) {
+                        continue;
+                    }
+                    DataItem di = dm.read(uid);
+                    update(di, xid, random);
+                    di.release();
+                    touched.add(uid);
+                }
+                int end = random.nextInt(3);
+                if(end == 0) {
+                    dm.logCommit(xid);
+                } else if(end == 1) {
+                    dm.logAbort(xid);
+                } else {
+                    for(long uid : touched) {
+                        owners.put(uid, xid);
+                    }
+                }
+            }
+            long uid;
+            do {
+                uid = uids.get(random.nextInt(uids.size()));
+            } while(owners.containsKey(uid));
+            DataItem di = dm.read(uid);
+            update(di, TransactionManagerImpl.SUPER_XID, random);
+            di.release();
+            if(round == 1) {
+                dm.checkpoint();
+            }
+        }
+        dm.flushLog();
+        return src;
+    }
+
+    private static File copy(File src, File dst) throws Exception {
+        dst.mkdir();
+        for(File f : src.listFiles()) {
+            Files.copy(f.toPath(), new File(dst, f.getName()).toPath());
+        }
+        return dst;
+    }
+
+    private static void recover(File db, int threads) {
+        String path = new File(db, "db").getPath();
+        TransactionManager tm = TransactionManager.open(path);
+        PageCache pc = PageCache.open(path, MEMORY, config());
+        Logger lg = Logger.open(path);
+        pc.setLogger(lg);
+        Recover.recover(tm, lg, pc, threads);
+        pc.close();
+        lg.close();
+        tm.close();
+    }
+
+    private static byte[] read(File db, String suffix) throws Exception {
+        return Files.readAllBytes(new File(db, "db" + suffix).toPath());
+    }
+
+    @Test
+    public void testParallelRecoveryMatchesSerial() throws Exception {
+        File src = crashedDatabase();
+        File serial = copy(src, new File(dir, "serial"));
+        File parallel = copy(src, new File(dir, "parallel"));
+
+        recover(serial, 1);
+        recover(parallel, 8);
+
+        byte[] db = read(serial, ".db");
+        assertFalse(db.length == 0);
+        assertArrayEquals(db, read(parallel, ".db"));
+        assertArrayEquals(read(serial, ".xid"), read(parallel, ".xid"));
+    }
+
+    /**
+     * 检查点记录的活跃事务的日志已经不在日志中，仍然活跃的在恢复时标记为取消，检查点之后提交的按提交日志处理
+     */
+    @Test
+    public void testCheckpointActiveXidsWithoutRecords() throws Exception {
+        File db = new File(dir, "db");
+        db.mkdir();
+        String path = new File(db, "db").getPath();
+        TransactionManager tm = TransactionManager.create(path);
+        long truncated = tm.begin();
+        long committed = tm.begin();
+        tm.close();
+        PageCacheImpl pc = PageCache.create(path, MEMORY, config());
+        pc.newPage(PageOne.InitRaw(pc.getPageSize()));
+        pc.close();
+        Logger lg = Logger.create(path);
+        lg.log(Recover.checkpointLog(0, 1, Arrays.asList(truncated, committed)));
+        lg.flush(lg.log(Recover.commitLog(committed)));
+        lg.close();
+
+        recover(db, 1);
+
+        tm = TransactionManager.open(path);
+        assertTrue(tm.isAborted(truncated));
+        assertTrue(tm.isCommitted(committed));
+        tm.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.lly.backend.DM;
+
+import com.lly.backend.DM.dataItem.DataItem;
+import com.lly.backend.DM.logger.Logger;
+import com.lly.backend.DM.pageCache.PageCache;
+import com.lly.backend.DM.pageCache.PageCacheConfig;
+import com.lly.backend.TM.TransactionManager;
+import com.lly.backend.common.MySubArray;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 崩溃恢复的耗时随重做和撤销线程数的变化
+ * 先写出一个没有检查点的崩溃数据库，日志达到指定大小，大部分事务已提交，每轮恢复它的一个副本
+ * 用法: RecoveryBenchmark [日志MB数] [缓存MB数]
+ */
+public class RecoveryBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        long logBytes = (args.length > 0 ? Long.parseLong(args[0]) : 256) << 20;
+        long memory = (args.length > 1 ? Long.parseLong(args[1]) : 64) << 20;
+
+        File dir = Files.createTempDirectory("recovery-bench").toFile();
+        File src = new File(dir, "src");
+        src.mkdir();
+        crash(new File(src, "db").getPath(), logBytes, memory);
+        long size = 0;
+        for(File f : src.listFiles()) {
+            if(f.getName().startsWith("db.log")) {
+                size += f.length();
+            }
+        }
+
+        System.out.printf("log=%dMB cache=%dMB%n", size >> 20, memory >> 20);
+        for(int threads : THREADS) {
+            File db = new File(dir, "recover-" + threads);
+            db.mkdir();
+            for(File f : src.listFiles()) {
+                Files.copy(f.toPath(), new File(db, f.getName()).toPath());
+            }
+            long millis = recover(new File(db, "db").getPath(), memory, threads);
+            System.out.printf("threads=%-3d recovery=%dms%n", threads, millis);
+            delete(db);
+        }
+        delete(dir);
+    }
+
+    private static PageCacheConfig config() {
+        PageCacheConfig config = new PageCacheConfig();
+        config.warmUp = false;
+        config.checkpointInterval = 0;
+        return config;
+    }
+
+    /*
+     * 每个事务插入和修改若干数据项，九成提交，其余的取消或保持活跃，日志写到指定大小后不关闭数据库
+     */
+    private static void crash(String path, long logBytes, long memory) throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        DataManagerImpl dm = (DataManagerImpl)DataManager.create(path, memory, tm, config());
+        Random random = new Random(19);
+        List<Long> uids = new ArrayList<>();
+        while(dm.logger.endLSN() < logBytes) {
+            long xid = tm.begin();
+            for(int i = 0; i < 8; i ++) {
+                byte[] data = new byte[64 + random.nextInt(256)];
+                random.nextBytes(data);
+                uids.add(dm.insert(xid, data));
+            }
+            int end = random.nextInt(10);
+            if(end == 0) {
+                dm.logAbort(xid);
+            } else if(end == 1) {
+                continue;
+            }
+            // 活跃事务不再修改，修改只发生在已结束的事务之间
+            for(int i = 0; i < 8; i ++) {
+                DataItem di = dm.read(uids.get(random.nextInt(uids.size())));
+                long writer = tm.begin();
+                di.before();
+                MySubArray data = di.data();
+                data.raw.put(data.start + random.nextInt(data.end - data.start), (byte)random.nextInt());
+                di.after(writer);
+                di.release();
+                dm.logCommit(writer);
+            }
+            if(end != 0) {
+                dm.logCommit(xid);
+            }
+        }
+        dm.flushLog();
+    }
+
+    private static long recover(String path, long memory, int threads) {
+        TransactionManager tm = TransactionManager.open(path);
+        PageCache pc = PageCache.open(path, memory, config());
+        Logger lg = Logger.open(path);
+        pc.setLogger(lg);
+        long begin = System.currentTimeMillis();
+        Recover.recover(tm, lg, pc, threads);
+        long millis = System.currentTimeMillis() - begin;
+        pc.close();
+        lg.close();
+        tm.close();
+        return millis;
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if(files != null) {
+            for(File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,76 @@
+package com.lly.backend.DM.logger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 小事务提交的吞吐量随线程数的变化
+ * 每次提交写一条日志并等待它落盘，serial模式下写日志和等待落盘在同一把锁内，每次提交单独force一次，
+ * 相当于没有组提交；group模式下并发的提交共享一次force
+ * 用法: GroupCommitBenchmark [日志字节数] [每轮毫秒数]
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+        System.out.printf("record=%dB%n", size);
+        for(boolean group : new boolean[]{false, true}) {
+            for(int threads : THREADS) {
+                File dir = Files.createTempDirectory("commit-bench").toFile();
+                Logger lg = Logger.create(new File(dir, "bench").getPath());
+                long ops = run(lg, size, threads, group, millis);
+                lg.close();
+                System.out.printf("%-6s threads=%-3d commits/s=%d%n",
+                        group ? "group" : "serial", threads, ops * 1000 / millis);
+                for(File f : dir.listFiles()) {
+                    f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static long run(Logger lg, int size, int threads, boolean group, long millis) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        Lock serial = new ReentrantLock();
+        Thread[] ts = new Thread[threads];
+        for(int t = 0; t < threads; t ++) {
+            ts[t] = new Thread(() -> {
+                byte[] data = new byte[size];
+                ThreadLocalRandom.current().nextBytes(data);
+                long n = 0;
+                while(!stop.get()) {
+                    if(group) {
+                        lg.flush(lg.log(data));
+                    } else {
+                        serial.lock();
+                        try {
+                            lg.flush(lg.log(data));
+                        } finally {
+                            serial.unlock();
+                        }
+                    }
+                    n ++;
+                }
+                ops.addAndGet(n);
+            });
+            ts[t].start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for(Thread t : ts) {
+            t.join();
+        }
+        return ops.get();
+    }
+}
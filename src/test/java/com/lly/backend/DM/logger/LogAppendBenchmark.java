@@ -0,0 +1,66 @@
+package com.lly.backend.DM.logger;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 写日志的吞吐量和每条日志在写入线程上分配的内存随线程数的变化
+ * 写入线程只追加日志不等待落盘，环形缓冲区满时等待后台线程写出，吞吐量包括写出到文件的开销
+ * 用法: LogAppendBenchmark [日志字节数] [每轮毫秒数]
+ */
+public class LogAppendBenchmark {
+
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        System.out.printf("record=%dB%n", size);
+        for(int threads : THREADS) {
+            File dir = Files.createTempDirectory("append-bench").toFile();
+            Logger lg = Logger.create(new File(dir, "bench").getPath());
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong ops = new AtomicLong();
+            AtomicLong allocated = new AtomicLong();
+            Thread[] ts = new Thread[threads];
+            for(int t = 0; t < threads; t ++) {
+                ts[t] = new Thread(() -> {
+                    byte[] data = new byte[size];
+                    ThreadLocalRandom.current().nextBytes(data);
+                    // 先写一轮，不统计第一次写入时的类加载和线程局部对象
+                    for(int i = 0; i < 10000; i ++) {
+                        lg.log(data);
+                    }
+                    long id = Thread.currentThread().getId();
+                    long before = mx.getThreadAllocatedBytes(id);
+                    long n = 0;
+                    while(!stop.get()) {
+                        lg.log(data);
+                        n ++;
+                    }
+                    allocated.addAndGet(mx.getThreadAllocatedBytes(id) - before);
+                    ops.addAndGet(n);
+                });
+                ts[t].start();
+            }
+            Thread.sleep(millis);
+            stop.set(true);
+            for(Thread t : ts) {
+                t.join();
+            }
+            lg.close();
+            System.out.printf("threads=%-3d records/s=%d bytes/record=%.2f%n",
+                    threads, ops.get() * 1000 / millis, (double)allocated.get() / Math.max(1, ops.get()));
+            for(File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.lly.backend.DM.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoggerTest {
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("logger").toFile();
+        path = new File(dir, "db").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /*
+     * 长度不超过400KB的日志，写满一个段需要几十条，环形缓冲区也会多次回绕
+     */
+    private static byte[] record(Random random) {
+        byte[] data = new byte[8 + random.nextInt(400 << 10)];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testRecordsAcrossRingWrapAndSegments() throws Exception {
+        Random random = new Random(21);
+        List<byte[]> expected = new ArrayList<>();
+        List<Long> lsns = new ArrayList<>();
+        Logger lg = Logger.create(path);
+        long total = 0;
+        while(total < LoggerImpl.SEGMENT_SIZE * 3 / 2) {
+            byte[] data = record(random);
+            expected.add(data);
+            lsns.add(lg.log(data));
+            total += data.length;
+            // 偶尔等待落盘，缓冲区中同时有已落盘和未落盘的部分
+            if(random.nextInt(8) == 0) {
+                lg.flush(lsns.get(lsns.size() - 1));
+            }
+        }
+        lg.close();
+        assertTrue(LogSegment.list(path).size() >= 2);
+
+        lg = Logger.open(path);
+        List<Long> starts = new ArrayList<>();
+        for(int i = 0; i < expected.size(); i ++) {
+            assertArrayEquals(expected.get(i), lg.next());
+            assertEquals((long)lsns.get(i), lg.lastLSN());
+            starts.add(lg.lastStart());
+        }
+        assertNull(lg.next());
+
+        // 按位置重新读取，包括每个段的第一条日志
+        for(int i = expected.size() - 1; i >= 0; i --) {
+            assertArrayEquals(expected.get(i), lg.read(starts.get(i)));
+        }
+        lg.close();
+    }
+
+    @Test
+    public void testConcurrentWritersAcrossSegments() throws Exception {
+        int threads = 4, records = 40;
+        Logger writer = Logger.create(path);
+        Thread[] ts = new Thread[threads];
+        for(int t = 0; t < threads; t ++) {
+            int id = t;
+            ts[t] = new Thread(() -> {
+                Random random = new Random(id);
+                for(int i = 0; i < records; i ++) {
+                    byte[] data = record(random);
+                    // 日志开头记录线程号和序号
+                    ByteBuffer.wrap(data).putInt(0, id).putInt(4, i);
+                    writer.flush(writer.log(data));
+                }
+            });
+            ts[t].start();
+        }
+        for(Thread t : ts) {
+            t.join();
+        }
+        writer.close();
+        assertTrue(LogSegment.list(path).size() >= 2);
+
+        // 每个线程的日志按写入的顺序出现，内容与重新生成的一致
+        Logger lg = Logger.open(path);
+        int[] next = new int[threads];
+        Random[] randoms = new Random[threads];
+        for(int t = 0; t < threads; t ++) {
+            randoms[t] = new Random(t);
+        }
+        byte[] log;
+        while((log = lg.next()) != null) {
+            ByteBuffer buf = ByteBuffer.wrap(log);
+            int id = buf.getInt(0);
+            assertEquals(next[id]++, buf.getInt(4));
+            byte[] data = record(randoms[id]);
+            ByteBuffer.wrap(data).putInt(0, id).putInt(4, next[id] - 1);
+            assertArrayEquals(data, log);
+        }
+        for(int t = 0; t < threads; t ++) {
+            assertEquals(records, next[t]);
+        }
+        lg.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.lly.backend.DM.pageCache;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DirectPageFileTest {
+
+    private static final int PAGE_SIZE = 8192;
+
+    private File dir;
+    private File f;
+    private RandomAccessFile raf;
+    private DirectPageFile pageFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("direct-page-file").toFile();
+        f = new File(dir, "t.db");
+        f.createNewFile();
+        // 文件系统不支持O_DIRECT时（如tmpfs）跳过
+        try {
+            FileChannel.open(f.toPath(), StandardOpenOption.READ, ExtendedOpenOption.DIRECT).close();
+        } catch (IOException | UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+        raf = new RandomAccessFile(f, "rw");
+        pageFile = new DirectPageFile(raf, f.toPath(), PAGE_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        if(pageFile != null) {
+            pageFile.close();
+        }
+        for(File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static byte[] randomPage(Random random) {
+        byte[] page = new byte[PAGE_SIZE];
+        random.nextBytes(page);
+        return page;
+    }
+
+    @Test
+    public void testPagesRoundTrip() throws Exception {
+        Random random = new Random(13);
+        int pages = 64;
+        byte[][] expected = new byte[pages][];
+        pageFile.extend((long)pages * PAGE_SIZE);
+        // 乱序写入，页框是堆内存，经过对齐缓冲区中转
+        for(int i = pages - 1; i >= 0; i -= 2) {
+            expected[i] = randomPage(random);
+            pageFile.write((long)i * PAGE_SIZE, ByteBuffer.wrap(expected[i]));
+        }
+        for(int i = 0; i < pages; i += 2) {
+            expected[i] = randomPage(random);
+            pageFile.write((long)i * PAGE_SIZE, ByteBuffer.wrap(expected[i]));
+        }
+        pageFile.sync();
+
+        for(int i = 0; i < pages; i ++) {
+            ByteBuffer frame = ByteBuffer.allocate(PAGE_SIZE);
+            pageFile.read((long)i * PAGE_SIZE, frame);
+            assertEquals(0, frame.remaining());
+            assertArrayEquals(expected[i], frame.array());
+        }
+
+        // 绕过页缓存写入的数据和普通读取看到的一致
+        byte[] all = Files.readAllBytes(f.toPath());
+        assertEquals((long)pages * PAGE_SIZE, all.length);
+        for(int i = 0; i < pages; i ++) {
+            byte[] page = new byte[PAGE_SIZE];
+            System.arraycopy(all, i * PAGE_SIZE, page, 0, PAGE_SIZE);
+            assertArrayEquals(expected[i], page);
+        }
+    }
+
+    @Test
+    public void testMultiPageWriteAndReadPastEnd() throws Exception {
+        Random random = new Random(17);
+        byte[] two = new byte[2 * PAGE_SIZE];
+        random.nextBytes(two);
+        pageFile.extend(2 * PAGE_SIZE);
+        pageFile.write(0, ByteBuffer.wrap(two));
+
+        ByteBuffer frame = ByteBuffer.allocate(2 * PAGE_SIZE);
+        pageFile.read(0, frame);
+        assertArrayEquals(two, frame.array());
+
+        // 复用的页框读到文件末尾之后的部分被清零
+        ByteBuffer reused = ByteBuffer.wrap(randomPage(random));
+        pageFile.read(2L * PAGE_SIZE, reused);
+        assertArrayEquals(new byte[PAGE_SIZE], reused.array());
+    }
+
+    @Test
+    public void testConcurrentRoundTrip() throws Exception {
+        int threads = 8, pagesPerThread = 32;
+        pageFile.extend((long)threads * pagesPerThread * PAGE_SIZE);
+        Throwable[] failure = new Throwable[1];
+        Thread[] ts = new Thread[threads];
+        for(int t = 0; t < threads; t ++) {
+            int id = t;
+            ts[t] = new Thread(() -> {
+                try {
+                    Random random = new Random(id);
+                    for(int i = 0; i < pagesPerThread; i ++) {
+                        long offset = (long)(i * threads + id) * PAGE_SIZE;
+                        byte[] page = randomPage(random);
+                        pageFile.write(offset, ByteBuffer.wrap(page));
+                        ByteBuffer frame = ByteBuffer.allocate(PAGE_SIZE);
+                        pageFile.read(offset, frame);
+                        assertArrayEquals(page, frame.array());
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            ts[t].start();
+        }
+        for(Thread t : ts) {
+            t.join();
+        }
+        if(failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+}
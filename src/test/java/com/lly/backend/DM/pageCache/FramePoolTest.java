@@ -0,0 +1,52 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.common.ErrorItem;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramePoolTest {
+
+    @Test
+    public void testCapacityIsBounded() throws Exception {
+        FramePool pool = new FramePool(4096, 2, 50);
+        ByteBuffer a = pool.acquire();
+        assertTrue(a.isDirect());
+        pool.acquire();
+        try {
+            pool.acquire();
+            fail("pool should not allocate past its capacity");
+        } catch (Exception e) {
+            assertSame(ErrorItem.CacheFullException, e);
+        }
+
+        // 回收的页框被复用，并且已经清空位置
+        a.position(100);
+        pool.recycle(a);
+        ByteBuffer b = pool.acquire();
+        assertSame(a, b);
+        assertEquals(0, b.position());
+        assertEquals(4096, b.remaining());
+    }
+
+    @Test
+    public void testWaiterGetsRecycledFrame() throws Exception {
+        FramePool pool = new FramePool(4096, 1, 5000);
+        ByteBuffer a = pool.acquire();
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            pool.recycle(a);
+        });
+        t.start();
+        assertSame(a, pool.acquire());
+        t.join();
+    }
+}
@@ -0,0 +1,85 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.backend.DM.page.Page;
+import com.lly.backend.DM.page.PageNormal;
+import com.lly.backend.DM.page.PageOne;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 页面缓存命中的吞吐量随线程数的变化
+ * 缓存容纳所有页面，预先读入后每次随机读一个页面都会命中，吞吐量取决于命中路径上共享的状态
+ * 用法: PageCacheHitBenchmark [页数] [每轮毫秒数]
+ */
+public class PageCacheHitBenchmark {
+
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+        File dir = Files.createTempDirectory("hit-bench").toFile();
+        String path = new File(dir, "bench").getPath();
+        PageCacheConfig config = new PageCacheConfig();
+        config.prefetchPages = 0;
+        config.warmUp = false;
+        long memory = (long)pages * config.pageSize;
+
+        PageCacheImpl pc = PageCache.create(path, memory, config);
+        pc.newPage(PageOne.InitRaw(config.pageSize));
+        for(int i = 1; i < pages; i ++) {
+            pc.newPage(PageNormal.initRaw(config.pageSize));
+        }
+        pc.close();
+
+        System.out.printf("pages=%d%n", pages);
+        for(int threads : THREADS) {
+            pc = PageCache.open(path, memory, config);
+            for(int pgno = 1; pgno <= pages; pgno ++) {
+                pc.getPage(pgno).release();
+            }
+            long ops = run(pc, pages, threads, millis);
+            pc.close();
+            System.out.printf("threads=%-3d hits/s=%d%n", threads, ops * 1000 / millis);
+        }
+
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static long run(PageCacheImpl pc, int pages, int threads, long millis) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        Thread[] ts = new Thread[threads];
+        for(int t = 0; t < threads; t ++) {
+            ts[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long n = 0;
+                try {
+                    while(!stop.get()) {
+                        Page pg = pc.getPage(2 + random.nextInt(pages - 1));
+                        pg.release();
+                        n ++;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(n);
+            });
+            ts[t].start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for(Thread t : ts) {
+            t.join();
+        }
+        return ops.get();
+    }
+}
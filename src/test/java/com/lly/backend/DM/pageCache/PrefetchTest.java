@@ -0,0 +1,61 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.backend.DM.page.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrefetchTest {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGES = 512;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prefetch").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * 顺序读取几页后立即关闭，关闭时预读线程正在读取文件
+     * 中断正在读取的线程会关闭共享的FileChannel，关闭过程随后写回页面时失败
+     */
+    @Test
+    public void testCloseWhilePrefetching() throws Exception {
+        File f = new File(dir, "t.db");
+        PageCacheConfig config = new PageCacheConfig();
+        config.pageSize = PAGE_SIZE;
+        config.prefetchPages = 64;
+        config.prefetchThreads = 4;
+        config.warmUp = false;
+        for(int round = 0; round < 50; round ++) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            raf.setLength((long)PAGES * PAGE_SIZE);
+            PageCacheImpl pc = new PageCacheImpl(new ChannelPageFile(raf, raf.getChannel()),
+                    new File(dir, "t.warm"), PAGE_SIZE, 256, config);
+            // 连续两次未命中相邻的页面触发预读
+            for(int pgno = 1; pgno <= 3; pgno ++) {
+                Page pg = pc.getPage(pgno);
+                pg.setDirty(true);
+                pg.release();
+            }
+            pc.close();
+            assertEquals((long)PAGES * PAGE_SIZE, f.length());
+        }
+    }
+}
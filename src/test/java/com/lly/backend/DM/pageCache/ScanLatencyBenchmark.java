@@ -0,0 +1,118 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.backend.DM.page.Page;
+import com.lly.backend.DM.page.PageNormal;
+import com.lly.backend.DM.page.PageOne;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 并发全表扫描时点查的延迟，分别测试扫描不使用和使用环形缓冲区
+ * 点查只访问缓存能容纳的热点页面，扫描反复读取所有页面，不使用环形缓冲区时热点页面被扫描挤出缓存
+ * 用法: ScanLatencyBenchmark [页数] [缓存页数] [热点页数] [每轮毫秒数] [chan|mmap|direct]
+ */
+public class ScanLatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        int cachePages = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int hotPages = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        long millis = args.length > 3 ? Long.parseLong(args[3]) : 5000;
+        String mode = args.length > 4 ? args[4] : "chan";
+
+        File dir = Files.createTempDirectory("scan-bench").toFile();
+        String path = new File(dir, "bench").getPath();
+        PageCacheConfig config = new PageCacheConfig();
+        config.mmap = mode.equals("mmap");
+        config.direct = mode.equals("direct");
+        config.prefetchPages = 0;
+        config.warmUp = false;
+        long memory = (long)cachePages * config.pageSize;
+
+        PageCacheImpl pc = PageCache.create(path, memory, config);
+        pc.newPage(PageOne.InitRaw(config.pageSize));
+        for(int i = 1; i < pages; i ++) {
+            pc.newPage(PageNormal.initRaw(config.pageSize));
+        }
+        pc.close();
+
+        System.out.printf("mode=%s pages=%d cache=%d hot=%d ring=%d%n",
+                mode, pages, cachePages, hotPages, config.scanRingPages);
+        for(boolean ring : new boolean[]{false, true}) {
+            pc = PageCache.open(path, memory, config);
+            run(pc, pages, hotPages, ring, millis);
+            pc.close();
+        }
+
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void run(PageCacheImpl pc, int pages, int hotPages, boolean ring, long millis) throws Exception {
+        // 热点页面访问两次以上，是LRU-K中访问记录完整的页面
+        for(int round = 0; round < 2; round ++) {
+            for(int pgno = 2; pgno < 2 + hotPages; pgno ++) {
+                pc.getPage(pgno).release();
+            }
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] scanned = new long[1];
+        Thread scanner = new Thread(() -> {
+            try {
+                while(!stop.get()) {
+                    if(ring) {
+                        pc.beginScan();
+                    }
+                    try {
+                        for(int pgno = 2; pgno <= pages && !stop.get(); pgno ++) {
+                            Page pg = pc.getPage(pgno);
+                            pg.release();
+                            scanned[0] ++;
+                        }
+                    } finally {
+                        if(ring) {
+                            pc.endScan();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        scanner.start();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] latencies = new long[1 << 20];
+        int n = 0;
+        long end = System.currentTimeMillis() + millis;
+        while(System.currentTimeMillis() < end) {
+            long begin = System.nanoTime();
+            Page pg = pc.getPage(2 + random.nextInt(hotPages));
+            pg.release();
+            latencies[n % latencies.length] = System.nanoTime() - begin;
+            n ++;
+        }
+        stop.set(true);
+        scanner.join();
+
+        long[] sorted = Arrays.copyOf(latencies, Math.min(n, latencies.length));
+        Arrays.sort(sorted);
+        System.out.printf("ring=%-5s lookups/s=%d p50=%dns p99=%dns p999=%dns scanned/s=%d%n",
+                ring, n * 1000L / millis, percentile(sorted, 0.5), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), scanned[0] * 1000 / millis);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if(sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))];
+    }
+}
@@ -0,0 +1,145 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.backend.DM.page.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanRingTest {
+
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * 内存中的数据库文件，统计读取的页面数
+     */
+    static class MemoryPageFile implements PageFile {
+        byte[] data;
+        AtomicInteger reads = new AtomicInteger();
+
+        MemoryPageFile(int pages) {
+            data = new byte[pages * PAGE_SIZE];
+        }
+
+        @Override
+        public synchronized void read(long offset, ByteBuffer dst) {
+            reads.incrementAndGet();
+            int n = (int)Math.max(0, Math.min(dst.remaining(), data.length - offset));
+            dst.put(data, (int)offset, n);
+            while(dst.hasRemaining()) {
+                dst.put((byte)0);
+            }
+        }
+
+        @Override
+        public synchronized void write(long offset, ByteBuffer src) {
+            src.get(data, (int)offset, src.remaining());
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void truncate(long size) {
+        }
+
+        @Override
+        public void extend(long size) {
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("scan-ring").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private PageCacheImpl open(MemoryPageFile file, int maxResource, int ringPages) {
+        PageCacheConfig config = new PageCacheConfig();
+        config.pageSize = PAGE_SIZE;
+        config.prefetchPages = 0;
+        config.scanRingPages = ringPages;
+        config.warmUp = false;
+        return new PageCacheImpl(file, new File(dir, "t.warm"), PAGE_SIZE, maxResource, config);
+    }
+
+    private static void touch(PageCacheImpl pc, int from, int to) throws Exception {
+        for(int pgno = from; pgno <= to; pgno ++) {
+            Page pg = pc.getPage(pgno);
+            pg.release();
+        }
+    }
+
+    /**
+     * 只被访问过一次的热点页面，LRU-K会先于扫描的页面驱逐它们，扫描环保证扫描只挤出自己读入的页面
+     */
+    @Test
+    public void testScanDoesNotEvictHotSet() throws Exception {
+        MemoryPageFile file = new MemoryPageFile(2000);
+        PageCacheImpl pc = open(file, 64, 8);
+        touch(pc, 1, 40);
+
+        pc.beginScan();
+        touch(pc, 41, 2000);
+        pc.endScan();
+
+        file.reads.set(0);
+        touch(pc, 1, 40);
+        assertEquals(0, file.reads.get());
+        pc.close();
+    }
+
+    /**
+     * 扫描结束后，扫描读入的页面最多在缓存中留下扫描环大小的页数
+     */
+    @Test
+    public void testScanOccupiesOnlyTheRing() throws Exception {
+        MemoryPageFile file = new MemoryPageFile(2000);
+        PageCacheImpl pc = open(file, 64, 8);
+
+        pc.beginScan();
+        touch(pc, 1, 2000);
+        pc.endScan();
+
+        file.reads.set(0);
+        touch(pc, 1, 2000 - 8);
+        assertEquals(2000 - 8, file.reads.get());
+
+        // 没有扫描环时同样的扫描会占满缓存
+        MemoryPageFile plain = new MemoryPageFile(2000);
+        PageCacheImpl pc2 = open(plain, 64, 0);
+        touch(pc2, 1, 40);
+        touch(pc2, 41, 2000);
+        plain.reads.set(0);
+        touch(pc2, 1, 40);
+        assertTrue(plain.reads.get() > 0);
+        pc.close();
+        pc2.close();
+    }
+}
@@ -0,0 +1,77 @@
+package com.lly.backend.DM.pageCache;
+
+import com.lly.backend.DM.page.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class WarmPagesTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("warm-pages").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static Set<Integer> readWarmFile(File warmFile) throws Exception {
+        Set<Integer> pages = new HashSet<>();
+        if(!warmFile.exists()) {
+            return pages;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(warmFile.toPath()));
+        int count = buf.getInt();
+        for(int i = 0; i < count; i ++) {
+            pages.add(buf.getInt());
+        }
+        return pages;
+    }
+
+    /**
+     * 没有正常关闭时，后台写线程定期保存的预热文件记录了缓存中的页面
+     */
+    @Test
+    public void testWarmFileSavedWithoutClose() throws Exception {
+        PageCacheConfig config = new PageCacheConfig();
+        config.pageSize = 4096;
+        config.prefetchPages = 0;
+        config.writerInterval = 20;
+        config.warmSaveInterval = 20;
+        File warmFile = new File(dir, "t.warm");
+        PageCacheImpl pc = new PageCacheImpl(new ScanRingTest.MemoryPageFile(100), warmFile, 4096, 32, config);
+        for(int pgno = 1; pgno <= 10; pgno ++) {
+            Page pg = pc.getPage(pgno);
+            pg.release();
+        }
+
+        Set<Integer> expected = new HashSet<>();
+        for(int pgno = 1; pgno <= 10; pgno ++) {
+            expected.add(pgno);
+        }
+        // 写线程可能在页面全部读入之前保存过一次，等待下一次保存
+        Set<Integer> pages = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!expected.equals(pages) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            pages = readWarmFile(warmFile);
+        }
+        assertEquals(expected, pages);
+        pc.close();
+    }
+}
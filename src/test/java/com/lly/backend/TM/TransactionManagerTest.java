@@ -0,0 +1,89 @@
+package com.lly.backend.TM;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionManagerTest {
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tm").toFile();
+        path = new File(dir, "db").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testStatusesBehindAbortedXID() {
+        TransactionManager tm = TransactionManager.create(path);
+        long committed = tm.begin();
+        long aborted = tm.begin();
+        long later = tm.begin();
+        long active = tm.begin();
+        tm.commit(committed);
+        tm.abort(aborted);
+        tm.commit(later);
+
+        assertTrue(tm.isCommitted(committed));
+        assertTrue(tm.isAborted(aborted));
+        assertFalse(tm.isCommitted(aborted));
+        assertFalse(tm.isAlive(aborted));
+        assertTrue(tm.isCommitted(later));
+        assertFalse(tm.isAborted(later));
+        assertTrue(tm.isAlive(active));
+        tm.close();
+    }
+
+    /**
+     * 重新打开后，上次预留了没有使用的XID和没有结束的事务被标记为取消，新的事务从预留的XID之后开始
+     */
+    @Test
+    public void testLeftoverXIDsAbortedOnOpen() {
+        TransactionManagerImpl tm = TransactionManager.create(path);
+        long committed = tm.begin();
+        long aborted = tm.begin();
+        long unfinished = tm.begin();
+        tm.commit(committed);
+        tm.abort(aborted);
+        tm.syncStatuses(tm.unsynced());
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assertTrue(tm.isAlive(unfinished));
+        tm.abortLeftovers();
+        assertTrue(tm.isCommitted(committed));
+        assertTrue(tm.isAborted(aborted));
+        assertTrue(tm.isAborted(unfinished));
+        assertTrue(tm.isAborted(unfinished + 1));
+
+        long next = tm.begin();
+        assertTrue(next > unfinished + 1);
+        assertTrue(tm.isAborted(next - 1));
+        assertTrue(tm.isAlive(next));
+        assertEquals(next, tm.statuses.horizon());
+
+        // 取消的状态在检查点写入XID文件
+        tm.syncStatuses(tm.unsynced());
+        tm.close();
+        tm = TransactionManager.open(path);
+        assertTrue(tm.isAborted(next - 1));
+        tm.close();
+    }
+}
@@ -0,0 +1,34 @@
+package com.lly.backend.TM;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class XIDStatusTableTest {
+
+    private static final byte ACTIVE = 0;
+    private static final byte COMMITTED = 1;
+    private static final byte ABORTED = 2;
+
+    /**
+     * 取消的事务和提交的事务一样推进horizon，状态位保持不变
+     */
+    @Test
+    public void testAbortedXIDDoesNotPinHorizon() {
+        XIDStatusTable table = new XIDStatusTable();
+        table.ensure(10);
+        table.set(1, COMMITTED);
+        table.set(2, ABORTED);
+        table.set(3, COMMITTED);
+        table.set(5, ABORTED);
+        table.advance(ACTIVE);
+        assertEquals(4, table.horizon());
+
+        table.set(4, ABORTED);
+        table.advance(ACTIVE);
+        assertEquals(6, table.horizon());
+        assertEquals(ABORTED, table.get(2));
+        assertEquals(COMMITTED, table.get(3));
+        assertEquals(ABORTED, table.get(4));
+    }
+}
@@ -0,0 +1,127 @@
+package com.lly.backend.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractCacheTest {
+
+    /**
+     * 资源即为它的键
+     */
+    static class KeyCache extends AbstractCache<Long> {
+        KeyCache(int maxResource, LRUKReplacer replacer) {
+            super(maxResource, replacer);
+        }
+
+        @Override
+        protected Long getForCache(long key) {
+            return key;
+        }
+
+        @Override
+        protected void releaseForCache(Long obj) {
+        }
+    }
+
+    /**
+     * 检查引用计数协议的缓存：同一个键同时最多只有一份资源，资源被引用时不会被写回
+     */
+    static class CheckedCache extends AbstractCache<Long> {
+        final AtomicIntegerArray resident;    // 每个键在缓存中的资源份数
+        final AtomicIntegerArray pinned;    // 每个键被测试线程引用的次数
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger releases = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+
+        CheckedCache(int maxResource, int keys) {
+            super(maxResource, new LRUKReplacer(2), 10000);
+            resident = new AtomicIntegerArray(keys);
+            pinned = new AtomicIntegerArray(keys);
+        }
+
+        @Override
+        protected Long getForCache(long key) {
+            loads.incrementAndGet();
+            if(resident.getAndIncrement((int)key) != 0) {
+                violations.incrementAndGet();
+            }
+            return key;
+        }
+
+        @Override
+        protected void releaseForCache(Long obj) {
+            releases.incrementAndGet();
+            if(pinned.get(obj.intValue()) != 0 || resident.decrementAndGet(obj.intValue()) != 0) {
+                violations.incrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentGetReleaseEvict() throws Exception {
+        int keys = 256, threads = 16, rounds = 20000;
+        CheckedCache cache = new CheckedCache(32, keys);
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] ts = new Thread[threads];
+        for(int t = 0; t < threads; t ++) {
+            ts[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    for(int i = 0; i < rounds; i ++) {
+                        // 热点集中在少数键上，同时有命中、未命中和驱逐
+                        int key = random.nextInt(4) == 0 ? random.nextInt(keys) : random.nextInt(8);
+                        if(random.nextInt(16) == 0) {
+                            cache.evict(key);
+                            continue;
+                        }
+                        long value = cache.get(key);
+                        cache.pinned.incrementAndGet(key);
+                        if(value != key) {
+                            wrong.incrementAndGet();
+                        }
+                        cache.pinned.decrementAndGet(key);
+                        cache.release(key);
+                    }
+                } catch (Exception e) {
+                    wrong.incrementAndGet();
+                }
+            });
+            ts[t].start();
+        }
+        for(Thread t : ts) {
+            t.join();
+        }
+        assertEquals(0, wrong.get());
+        assertEquals(0, cache.violations.get());
+
+        cache.close();
+        // 每一份读入的资源都恰好写回一次
+        assertEquals(cache.loads.get(), cache.releases.get());
+        assertEquals(0, cache.violations.get());
+    }
+
+    @Test
+    public void testPinnedHitsBuildHistory() throws Exception {
+        KeyCache cache = new KeyCache(3, new LRUKReplacer(2));
+        // 第二次访问发生在资源仍被引用时，也要计入访问历史
+        cache.get(1);
+        cache.get(1);
+        cache.release(1);
+        cache.release(1);
+        cache.get(2);
+        cache.release(2);
+        cache.get(3);
+        cache.release(3);
+
+        cache.get(4);
+        assertTrue(cache.isCached(1));
+        assertFalse(cache.isCached(2));
+    }
+}
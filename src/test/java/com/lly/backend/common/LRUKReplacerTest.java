@@ -0,0 +1,55 @@
+package com.lly.backend.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LRUKReplacerTest {
+
+    private static void access(LRUKReplacer replacer, long key, int times) {
+        for(int i = 0; i < times; i ++) {
+            replacer.recordAccess(key);
+        }
+        replacer.setEvictable(key, true);
+    }
+
+    /**
+     * 驱逐过之后新加入、只访问过一次的资源，先于已经排好序的访问过K次的资源被驱逐
+     */
+    @Test
+    public void testNewKeyPreferredOverSortedCandidates() {
+        LRUKReplacer replacer = new LRUKReplacer(2);
+        for(long key = 1; key <= 8; key ++) {
+            access(replacer, key, 2);
+        }
+        assertEquals(1, replacer.evict());
+
+        access(replacer, 100, 1);
+        assertEquals(100, replacer.evict());
+        assertEquals(2, replacer.evict());
+    }
+
+    /**
+     * 排序之后被再次访问的资源按新的访问记录排序，被引用的资源跳过，重新变为可驱逐后按原来的顺序驱逐
+     */
+    @Test
+    public void testReorderedAfterAccessAndPin() {
+        LRUKReplacer replacer = new LRUKReplacer(2);
+        for(long key = 1; key <= 8; key ++) {
+            access(replacer, key, 2);
+        }
+        assertEquals(1, replacer.evict());
+
+        access(replacer, 2, 2);
+        replacer.setEvictable(3, false);
+        assertEquals(4, replacer.evict());
+        replacer.setEvictable(3, true);
+        replacer.remove(5);
+        assertEquals(3, replacer.evict());
+        assertEquals(6, replacer.evict());
+        assertEquals(7, replacer.evict());
+        assertEquals(8, replacer.evict());
+        assertEquals(2, replacer.evict());
+        assertEquals(-1, replacer.evict());
+    }
+}